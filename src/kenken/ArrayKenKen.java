@@ -0,0 +1,929 @@
+package kenken;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// ArrayKenKen is a second solver engine for the same KenKen puzzles that KenKen solves,
+// with the same backtracking results. Instead of Square and Constraint objects notifying
+// each other, the board, the number counts for each row and column, the running totals
+// and combination tables for each cage, each square's options and the queue of squares
+// for optimized backtracking are all kept in flat int arrays that are updated directly
+// when a square changes. Nothing is allocated once the puzzle has been built, which makes
+// it better suited to solving many puzzles in a row.
+//
+// It has KenKen's backtracking and local search methods (plus tabuSearch, but not the
+// parallel ones). Both kinds of backtracking reach the same nodes as KenKen's: optimized
+// backtracking prunes with the same cage combination tables (see candidates) and picks
+// squares in the same order as SquareQueue (see poll). Local search makes the same kind
+// of swaps but the results depend on the random numbers.
+//
+// Squares are indexed by x * n + y where x and y are the same as the indices of
+// KenKen's _squares (x is the position within a line of the layout, y is the line)
+public class ArrayKenKen {
+
+	private static final int SUM = 0, DIFFERENCE = 1, PRODUCT = 2, QUOTIENT = 3, SINGLE = 4;
+
+	private int _n;
+	private int[] _board; // The number in each square (0 if empty)
+	private int _empty; // How many squares are empty
+	private int _violations = 0;
+
+	// Rows and columns: how many of each number (index line * (n+1) + number), which
+	// numbers are present as a bitmask, and how many numbers are repeated
+	private int[] _row_counts, _col_counts;
+	private int[] _row_present, _col_present;
+	private int[] _row_repeats, _col_repeats;
+
+	// Cages: the squares in cage c are _cage_squares[_cage_start[c]] up to (not including)
+	// _cage_squares[_cage_start[c+1]]
+	private int[] _cage_of;
+	private int[] _cage_start;
+	private int[] _cage_squares;
+	private int[] _cage_operator;
+	private int[] _cage_result;
+	private int[] _cage_free; // How many squares in the cage are empty
+	private int[] _cage_total; // Sum or product of the numbers in the cage (empty squares ignored)
+	private boolean[] _cage_violated;
+	private int[] _cage_position; // Where each square is within its cage's squares
+
+	// Every combination of numbers that satisfies cage c (see Constraint.combinations) is in
+	// _combinations[_combination_start[c]] up to (not including) _combinations[_combination_start[c+1]],
+	// one number for each of the cage's squares, back to back
+	private int[] _combination_start;
+	private int[] _combinations;
+	private int[] _allowed; // Scratch space for candidates, one bitmask per square of a cage
+
+	// The numbers each square could still take, and whether that is out of date (see Square).
+	// Only kept up to date while optimized backtracking is running, since nothing else uses them
+	private int[] _candidates;
+	private boolean[] _stale;
+	private boolean _optimized;
+
+	// The queue of empty squares for optimized backtracking, the same as SquareQueue's:
+	// buckets keyed by how many options a square has and then how many empty squares share
+	// a row, column or cage with it, each a doubly linked list of squares
+	private int _max_degree;
+	private int[] _heads;
+	private int[] _next;
+	private int[] _prev;
+	private int[] _bucket; // Which bucket each square is in (-1 if not in the queue)
+	private int _min_bucket; // No bucket below this one has any squares in it
+	private int _queue_size;
+	private int[] _changed; // Squares whose options have changed since they were put in their bucket
+	private boolean[] _is_changed;
+	private int _num_changed;
+
+	// Used by backtracking and local search
+	private int[] _order;
+	private int[] _numbers;
+	private long _count;
+	private Random _random = new Random();
+
+	public ArrayKenKen(char[][] layout, Map<Character, String> cages) {
+		_n = layout.length;
+		initiateBoard();
+		createCages(layout, cages);
+	}
+
+	// IN:	Nothing
+	// OUT:	Nothing
+	//
+	// Allocates the board and row/column arrays for an n by n puzzle. Used in constructor
+	private void initiateBoard() {
+		_board = new int[_n*_n];
+		_empty = _n*_n;
+		_row_counts = new int[_n*(_n+1)];
+		_col_counts = new int[_n*(_n+1)];
+		_row_present = new int[_n];
+		_col_present = new int[_n];
+		_row_repeats = new int[_n];
+		_col_repeats = new int[_n];
+		for (int i = 0; i < _n; i++) {
+			_row_counts[i*(_n+1)] = _n;
+			_col_counts[i*(_n+1)] = _n;
+		}
+
+		_candidates = new int[_n*_n];
+		_stale = new boolean[_n*_n];
+		_max_degree = _n*_n + 2*_n;
+		_heads = new int[(_n+1) * (_max_degree+1)];
+		_next = new int[_n*_n];
+		_prev = new int[_n*_n];
+		_bucket = new int[_n*_n];
+		_changed = new int[_n*_n];
+		_is_changed = new boolean[_n*_n];
+
+		_order = new int[_n*_n];
+		_numbers = new int[_n];
+		for (int i = 0; i < _n*_n; i++)
+			_order[i] = i;
+		for (int i = 0; i < _n; i++)
+			_numbers[i] = i+1;
+	}
+
+	// IN:	char[][]			-> n by n array of the layout of the cages in the puzzle
+	//		Map<Character, String>	-> map of what mathematical expression each
+	//								character corresponds to (i.e. 'A' -> "6+")
+	// OUT:	Nothing
+	//
+	// Fills in the cage arrays. Used in constructor
+	private void createCages(char[][] layout, Map<Character, String> cages) {
+
+		// Number the cages in the order their letters are first seen
+		Map<Character, Integer> ids = new HashMap<Character, Integer>();
+		_cage_of = new int[_n*_n];
+		for (int i = 0; i < _n; i++)
+			for (int j = 0; j < _n; j++) {
+				if (!ids.containsKey(layout[i][j]))
+					ids.put(layout[i][j], ids.size());
+				_cage_of[i*_n + j] = ids.get(layout[i][j]);
+			}
+
+		int num_cages = ids.size();
+		_cage_start = new int[num_cages+1];
+		_cage_squares = new int[_n*_n];
+		_cage_operator = new int[num_cages];
+		_cage_result = new int[num_cages];
+		_cage_free = new int[num_cages];
+		_cage_total = new int[num_cages];
+		_cage_violated = new boolean[num_cages];
+
+		// Group the squares of each cage together
+		for (int square = 0; square < _n*_n; square++)
+			_cage_start[_cage_of[square]+1]++;
+		for (int c = 0; c < num_cages; c++)
+			_cage_start[c+1] += _cage_start[c];
+		int[] next = new int[num_cages];
+		_cage_position = new int[_n*_n];
+		for (int square = 0; square < _n*_n; square++) {
+			int c = _cage_of[square];
+			_cage_position[square] = next[c];
+			_cage_squares[_cage_start[c] + next[c]++] = square;
+		}
+
+		// Parse each expression the same way KenKen does
+		for (Map.Entry<Character, Integer> entry : ids.entrySet()) {
+			int c = entry.getValue();
+			String s = cages.get(entry.getKey());
+			try {
+				_cage_result[c] = Integer.parseInt(s);
+				_cage_operator[c] = SINGLE;
+			} catch (NumberFormatException e) {
+				_cage_result[c] = Integer.parseInt(s.substring(0,s.length()-1));
+				_cage_operator[c] = "+-*/".indexOf(s.charAt(s.length()-1));
+			}
+			_cage_free[c] = _cage_start[c+1] - _cage_start[c];
+			_cage_total[c] = _cage_operator[c] == PRODUCT ? 1 : 0;
+			_cage_violated[c] = calculateViolation(c);
+			if (_cage_violated[c]) _violations++;
+		}
+		createCombinations(num_cages);
+	}
+
+	// IN:	int			-> the number of cages
+	// OUT:	Nothing
+	//
+	// Fills in the combination table of every cage. Used in constructor
+	private void createCombinations(int num_cages) {
+		List<int[]> found = new ArrayList<int[]>();
+		_combination_start = new int[num_cages+1];
+		int max_size = 0;
+		for (int c = 0; c < num_cages; c++) {
+			int size = _cage_start[c+1] - _cage_start[c];
+			int before = found.size();
+			enumerate(c, new int[size], 0, found);
+			_combination_start[c+1] = _combination_start[c] + (found.size() - before) * size;
+			max_size = Math.max(max_size, size);
+		}
+
+		_combinations = new int[_combination_start[num_cages]];
+		int index = 0;
+		for (int[] combination : found) {
+			System.arraycopy(combination, 0, _combinations, index, combination.length);
+			index += combination.length;
+		}
+		_allowed = new int[max_size];
+	}
+
+	// IN:	int			-> the index of a cage
+	//		int[]		-> the combination filled in so far (one number per square of the cage)
+	//		int			-> how many numbers have been filled in
+	//		List<int[]>	-> where to save each complete combination
+	// OUT:	Nothing
+	//
+	// Recursively fills in combination[index] onward with every number that keeps the
+	// partial combination possible, saving each complete one that satisfies the cage and
+	// does not repeat a number within a row or column. Matches Constraint.enumerate
+	private void enumerate(int c, int[] combination, int index, List<int[]> found) {
+		int start = _cage_start[c];
+		int operator = _cage_operator[c];
+		int result = _cage_result[c];
+		if (index == combination.length) {
+			if (satisfies(operator, result, combination))
+				found.add(combination.clone());
+			return;
+		}
+
+		int partial = operator == PRODUCT ? 1 : 0;
+		for (int i = 0; i < index; i++)
+			partial = operator == PRODUCT ? partial * combination[i] : partial + combination[i];
+
+		int square = _cage_squares[start + index];
+		for (int num = 1; num <= _n; num++) {
+			boolean repeated = false;
+			for (int i = 0; i < index; i++) {
+				int other = _cage_squares[start + i];
+				if ((other / _n == square / _n || other % _n == square % _n) && combination[i] == num)
+					repeated = true;
+			}
+			if (repeated) continue;
+			if (operator == SUM && partial + num + (combination.length - index - 1) > result) break;
+			if (operator == PRODUCT && result % (partial * num) != 0) continue;
+
+			combination[index] = num;
+			enumerate(c, combination, index + 1, found);
+		}
+	}
+
+	// Returns whether a complete combination of numbers satisfies a cage with the given
+	// operator and result
+	private static boolean satisfies(int operator, int result, int[] combination) {
+		int total = operator == PRODUCT ? 1 : 0;
+		for (int num : combination)
+			total = operator == PRODUCT ? total * num : total + num;
+
+		switch (operator) {
+		case SUM:
+		case PRODUCT:
+			return total == result;
+		case DIFFERENCE:
+			return Math.abs(combination[0] - combination[1]) == result;
+		case QUOTIENT:
+			return Math.max(combination[0], combination[1]) == result * Math.min(combination[0], combination[1]);
+		default:
+			return combination[0] == result;
+		}
+	}
+
+	// IN:	Nothing
+	// OUT:	int			-> the dimension of the puzzle
+	//
+	// Returns the value of n for an nxn puzzle
+	public int getDimensions() {
+		return _n;
+	}
+
+	// IN:	Nothing
+	// OUT:	boolean		-> whether or not the puzzle is solved
+	//
+	// Checks to make sure no constraints are violated and that all squares are non-zero
+	public boolean solved() {
+		return _violations == 0 && _empty == 0;
+	}
+
+	// IN:	Nothing
+	// OUT:	Nothing
+	//
+	// Prints out the puzzle in an n by n format
+	public void print() {
+		System.out.print(toString());
+	}
+
+	// See KenKen
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; i < _n; i++) {
+			for (int j = 0; j < _n; j++)
+				out.append(_board[j*_n + i] + " ");
+			out.append(System.lineSeparator());
+		}
+		out.append(System.lineSeparator());
+		return out.toString();
+	}
+
+	// -----------------------------------------------------------------------
+	//
+	// BOARD UPDATES
+	//
+	// -----------------------------------------------------------------------
+
+	// IN:	int			-> the index of a square
+	//		int			-> the number to put in the square (0 to empty it)
+	// OUT:	Nothing
+	//
+	// Changes the number in a square and updates the row, column and cage totals and the
+	// number of violations. Equivalent to Square.setNumber
+	private void setNumber(int square, int num) {
+		int prev = _board[square];
+		if (_optimized) invalidateAround(square);
+		if (prev == num) return;
+		_board[square] = num;
+		if (prev == 0) _empty--;
+		if (num == 0) _empty++;
+
+		int x = square / _n;
+		int y = square % _n;
+		_violations += updateLine(_row_counts, _row_present, _row_repeats, y, prev, num);
+		_violations += updateLine(_col_counts, _col_present, _col_repeats, x, prev, num);
+
+		int c = _cage_of[square];
+		if (prev == 0) _cage_free[c]--;
+		if (num == 0) _cage_free[c]++;
+		if (_cage_operator[c] == SUM) {
+			_cage_total[c] += num - prev;
+		} else if (_cage_operator[c] == PRODUCT) {
+			if (prev != 0) _cage_total[c] /= prev;
+			if (num != 0) _cage_total[c] *= num;
+		}
+		boolean was_violated = _cage_violated[c];
+		_cage_violated[c] = calculateViolation(c);
+		if (was_violated != _cage_violated[c])
+			_violations += _cage_violated[c] ? 1 : -1;
+	}
+
+	// IN:	int			-> the index of a square that is changing
+	// OUT:	Nothing
+	//
+	// Marks the options of every square that could depend on the given one out of date, in
+	// the same order as KenKen's Constraints do: the row's squares and then each of their
+	// cages, the same for the column, and then the square's own cage. The order matters
+	// because it decides where squares land within their buckets in the queue. This is done
+	// even when the number is not really changing, also the same as KenKen
+	private void invalidateAround(int square) {
+		int x = square / _n;
+		int y = square % _n;
+		for (int i = 0; i < _n; i++)
+			invalidate(i*_n + y);
+		for (int i = 0; i < _n; i++)
+			invalidateCage(_cage_of[i*_n + y]);
+		for (int i = 0; i < _n; i++)
+			invalidate(x*_n + i);
+		for (int i = 0; i < _n; i++)
+			invalidateCage(_cage_of[x*_n + i]);
+		invalidateCage(_cage_of[square]);
+	}
+
+	// Marks the options of every square in cage c out of date
+	private void invalidateCage(int c) {
+		for (int i = _cage_start[c]; i < _cage_start[c+1]; i++)
+			invalidate(_cage_squares[i]);
+	}
+
+	// Marks the options of a square out of date and lets the queue know. Matches
+	// Square.invalidateCandidates and SquareQueue.changed
+	private void invalidate(int square) {
+		_stale[square] = true;
+		if (_is_changed[square] || _bucket[square] < 0) return;
+		_is_changed[square] = true;
+		_changed[_num_changed++] = square;
+	}
+
+	// IN:	int[]		-> the number counts for all rows (or columns)
+	//		int[]		-> the present bitmasks for all rows (or columns)
+	//		int[]		-> the repeat counts for all rows (or columns)
+	//		int			-> which row (or column) changed
+	//		int			-> the number that was removed
+	//		int			-> the number that was added
+	// OUT:	int			-> the change in the number of violations (-1, 0 or 1)
+	//
+	// Updates a single row or column when one of its squares changes
+	private int updateLine(int[] counts, int[] present, int[] repeats, int line, int prev, int num) {
+		int base = line*(_n+1);
+		boolean was_violated = repeats[line] > 0;
+
+		counts[base + prev]--;
+		if (prev != 0 && counts[base + prev] == 1) repeats[line]--;
+		if (counts[base + prev] == 0) present[line] &= ~(1 << prev);
+
+		counts[base + num]++;
+		if (num != 0 && counts[base + num] == 2) repeats[line]++;
+		present[line] |= 1 << num;
+
+		boolean violated = repeats[line] > 0;
+		return was_violated == violated ? 0 : violated ? 1 : -1;
+	}
+
+	// IN:	int			-> the index of a cage
+	// OUT:	boolean		-> whether or not the cage is violated
+	//
+	// Checks a cage against its running total. Matches Constraint.calculateViolation
+	private boolean calculateViolation(int c) {
+		int free = _cage_free[c];
+		int total = _cage_total[c];
+		int result = _cage_result[c];
+		switch (_cage_operator[c]) {
+		case SUM:
+			if (result - total < free) return true;
+			return free == 0 && total != result;
+		case PRODUCT:
+			if (total > result) return true;
+			return free == 0 && total != result;
+		case DIFFERENCE:
+		case QUOTIENT:
+			if (free > 0) return false;
+			int a = _board[_cage_squares[_cage_start[c]]];
+			int b = _board[_cage_squares[_cage_start[c]+1]];
+			if (_cage_operator[c] == DIFFERENCE)
+				return Math.abs(a - b) != result;
+			return Math.max(a / b, b / a) != result;
+		default:
+			return free == 0 && _board[_cage_squares[_cage_start[c]]] != result;
+		}
+	}
+
+	// IN:	int			-> the index of an empty square
+	// OUT:	int			-> bitmask of the numbers the square could still take
+	//
+	// Intersects what the square's row, column and cage still allow, recalculating it only
+	// if it has been marked out of date since the last time. Matches Square.getCandidates
+	private int candidates(int square) {
+		if (_stale[square]) {
+			_candidates[square] = lineCandidates(square) & cageCandidates(square);
+			_stale[square] = false;
+		}
+		return _candidates[square];
+	}
+
+	// Returns the numbers that the square's row and column still allow
+	private int lineCandidates(int square) {
+		int all = (1 << (_n+1)) - 2;
+		return all & ~_row_present[square % _n] & ~_col_present[square / _n];
+	}
+
+	// IN:	int			-> the index of an empty square
+	// OUT:	int			-> bitmask of the numbers the square's cage still allows it
+	//
+	// Every number in the square's position of some combination of the cage that agrees
+	// with the numbers already in the cage and that the other empty squares' rows and
+	// columns still allow. Matches Constraint.candidates
+	private int cageCandidates(int square) {
+		int all = (1 << (_n+1)) - 2;
+		int c = _cage_of[square];
+		int start = _cage_start[c];
+		int size = _cage_start[c+1] - start;
+		int position = _cage_position[square];
+		for (int i = 0; i < size; i++) {
+			int other = _cage_squares[start + i];
+			_allowed[i] = i == position ? all : _board[other] != 0 ? 1 << _board[other] : lineCandidates(other);
+		}
+
+		int candidates = 0;
+		for (int i = _combination_start[c]; i < _combination_start[c+1]; i += size) {
+			if ((candidates & (1 << _combinations[i + position])) != 0) continue;
+			boolean supported = true;
+			for (int j = 0; j < size && supported; j++)
+				supported = (_allowed[j] & (1 << _combinations[i + j])) != 0;
+			if (supported)
+				candidates |= 1 << _combinations[i + position];
+		}
+		return candidates;
+	}
+
+	// IN:	int			-> the index of a square that was just filled in
+	// OUT:	boolean		-> false if an empty square in the same row, column or cage
+	//						has no options left
+	//
+	// Forward checking. Matches Square.forwardCheck
+	private boolean forwardCheck(int square) {
+		int x = square / _n;
+		int y = square % _n;
+		for (int i = 0; i < _n; i++) {
+			if (_board[i*_n + y] == 0 && candidates(i*_n + y) == 0) return false;
+			if (_board[x*_n + i] == 0 && candidates(x*_n + i) == 0) return false;
+		}
+		int c = _cage_of[square];
+		for (int i = _cage_start[c]; i < _cage_start[c+1]; i++)
+			if (_board[_cage_squares[i]] == 0 && candidates(_cage_squares[i]) == 0) return false;
+		return true;
+	}
+
+	// IN:	int			-> the index of a square
+	// OUT:	int			-> how many empty squares share a row, column or cage with it
+	//
+	// Used to break ties between equally constricted squares (most constricting first)
+	private int restricting(int square) {
+		int x = square / _n;
+		int y = square % _n;
+		int c = _cage_of[square];
+		return _row_counts[y*(_n+1)] + _col_counts[x*(_n+1)] + _cage_free[c];
+	}
+
+	// IN:	Nothing
+	// OUT:	Nothing
+	//
+	// Empties the queue and then puts every empty square in it. Every square's options are
+	// marked out of date first, since they are not kept up to date outside of optimized
+	// backtracking. Matches the SquareQueue constructor
+	private void fillQueue() {
+		Arrays.fill(_heads, -1);
+		Arrays.fill(_bucket, -1);
+		Arrays.fill(_is_changed, false);
+		Arrays.fill(_stale, true);
+		_num_changed = 0;
+		_min_bucket = 0;
+		_queue_size = 0;
+		for (int square = 0; square < _n*_n; square++)
+			if (_board[square] == 0)
+				add(square);
+	}
+
+	// Puts a square (back) in the queue. Matches SquareQueue.add
+	private void add(int square) {
+		if (_bucket[square] >= 0) return;
+		link(square, bucket(square));
+		_queue_size++;
+	}
+
+	// Removes and returns the most constricted square (most constricting for ties), after
+	// moving every square whose options changed into its new bucket. Matches SquareQueue.poll
+	private int poll() {
+		for (int i = 0; i < _num_changed; i++) {
+			int square = _changed[i];
+			_is_changed[square] = false;
+			if (_bucket[square] >= 0) {
+				unlink(square);
+				link(square, bucket(square));
+			}
+		}
+		_num_changed = 0;
+
+		while (_heads[_min_bucket] < 0)
+			_min_bucket++;
+		int square = _heads[_min_bucket];
+		unlink(square);
+		_bucket[square] = -1;
+		_queue_size--;
+		return square;
+	}
+
+	// Returns which bucket a square belongs in
+	private int bucket(int square) {
+		return Integer.bitCount(candidates(square)) * (_max_degree+1) + (_max_degree - restricting(square));
+	}
+
+	// Adds a square to the front of a bucket
+	private void link(int square, int bucket) {
+		_bucket[square] = bucket;
+		_prev[square] = -1;
+		_next[square] = _heads[bucket];
+		if (_heads[bucket] >= 0)
+			_prev[_heads[bucket]] = square;
+		_heads[bucket] = square;
+		if (bucket < _min_bucket)
+			_min_bucket = bucket;
+	}
+
+	// Takes a square out of its bucket
+	private void unlink(int square) {
+		if (_prev[square] >= 0)
+			_next[_prev[square]] = _next[square];
+		else
+			_heads[_bucket[square]] = _next[square];
+		if (_next[square] >= 0)
+			_prev[_next[square]] = _prev[square];
+	}
+
+	// -----------------------------------------------------------------------
+	//
+	// BACKTRACKING
+	//
+	// -----------------------------------------------------------------------
+
+	// See KenKen
+	public String backtrack(boolean optimized) {
+		return backtrack(optimized, 1000000);
+	}
+
+	// IN:	boolean		-> whether or not it is optimized backtracking
+	//		long		-> the maximum number of nodes to explore before early
+	//						termination
+	// OUT:	String		-> the number of nodes reached while backtracking or
+	//						a message stating that there were too many nodes
+	//
+	// Begins the recursive call for backtracking. The squares yet to be assigned are kept
+	// at the end of _order, so no list is needed. If it is optimized backtracking, the empty
+	// squares are put in the queue instead.
+	public String backtrack(boolean optimized, long max_nodes) {
+		_count = 0;
+		if (optimized) fillQueue();
+		_optimized = optimized;
+		backtrack(optimized, 0, max_nodes);
+		_optimized = false;
+
+		// It is either solved or has exceeded the max count. Returns appropriate response
+		return (optimized ? "Optimized " : "") + "Backtracking: " + (solved() ? _count + " nodes" : "Exceeded " + max_nodes + " nodes");
+	}
+
+	// IN:	boolean		-> whether or not it is optimized backtracking
+	//		int			-> how many squares have been assigned (_order[depth] onward
+	//						are the remaining squares)
+	//		long		-> the maximum number of nodes to explore before early
+	//						termination
+	// OUT:	boolean		-> whether or not backtracking is necessary (i.e. all future nodes
+	//						lead to an error)
+	//
+	// Recursive backtracking method. Works the same way as KenKen's, but the next square
+	// is read from _order[depth] instead of being removed from a list (or is taken from
+	// the queue if this is optimized backtracking).
+	private boolean backtrack(boolean optimized, int depth, long max_nodes) {
+		if (_count > max_nodes) return false;
+		_count++;
+
+		if (_violations > 0) return true;
+		if (optimized ? _queue_size == 0 : depth == _order.length) return false;
+
+		int square = optimized ? poll() : _order[depth];
+		int candidates = optimized ? candidates(square) : 0;
+		for (int i = 1; i <= _n; i++) {
+			if (optimized && (candidates & (1 << i)) == 0) continue;
+			setNumber(square, i);
+
+			if (optimized && (_violations != 0 || !forwardCheck(square))) continue;
+
+			if (!backtrack(optimized, depth+1, max_nodes))
+				return false;
+		}
+
+		setNumber(square, 0);
+		if (optimized) add(square);
+		return true;
+	}
+
+	// -----------------------------------------------------------------------
+	//
+	// LOCAL SEARCH
+	//
+	// -----------------------------------------------------------------------
+
+	// See KenKen
+	public String localSearch() {
+		return localSearch(1000000);
+	}
+
+	// IN:	long		-> the maximum number of allowed iterations before early
+	//						termination
+	// OUT:	String		-> the number of iterations required reached while running
+	//						the local search or a message stating that there were
+	//						too many iterations
+	//
+	// Local search method. Same algorithm as KenKen's: steepest descent over swaps within a
+	// column, restarting from a new scramble at a local minimum.
+	public String localSearch(long max_iterations) {
+		int count = 0;
+		int max_swaps = _n*_n*(_n-1)/2;
+
+		while(!solved() && count < max_iterations) {
+			scramble();
+			for (int reset = 0; reset < max_swaps; reset++) {
+
+				int index1 = 0;
+				int index2 = 0;
+				int column = 0;
+				int min_violations = 3*_n*_n; // essentially MAX_VIOLATIONS
+
+				for (int col = 0; col < _n; col++)
+					for (int i = 0; i < _n-1; i++) {
+						for (int j = i+1; j < _n; j++) {
+							swap(col*_n + i, col*_n + j);
+
+							if (_violations <= min_violations) {
+								index1 = i;
+								index2 = j;
+								column = col;
+								min_violations = _violations;
+							}
+
+							swap(col*_n + i, col*_n + j);
+						}
+					}
+
+				if (index1 == 0 && index2 == 0) break;
+
+				swap(column*_n + index1, column*_n + index2);
+				count++;
+			}
+		}
+
+		return "Local Search: " + (solved() ? count + " iterations" : "Exceeded " + max_iterations + " iterations");
+	}
+
+	// IN:	Nothing
+	// OUT:	Nothing
+	//
+	// Randomly fills in the puzzle so each column has the numbers 1 through n exactly once.
+	// Shuffles _numbers in place instead of a List
+	private void scramble() {
+		for (int square = 0; square < _n*_n; square++)
+			setNumber(square, 0);
+
+		for (int i = 0; i < _n; i++) {
+			for (int j = _n-1; j > 0; j--) {
+				int k = _random.nextInt(j+1);
+				int tmp = _numbers[j];
+				_numbers[j] = _numbers[k];
+				_numbers[k] = tmp;
+			}
+			for (int j = 0; j < _n; j++)
+				setNumber(i*_n + j, _numbers[j]);
+		}
+	}
+
+	// IN:	int			-> the index of a first square
+	//		int			-> the index of a second square
+	// OUT:	Nothing
+	//
+	// Swaps the numbers of two squares
+	private void swap(int square1, int square2) {
+		int tmp = _board[square1];
+		setNumber(square1, _board[square2]);
+		setNumber(square2, tmp);
+	}
+
+	// -----------------------------------------------------------------------
+	//
+	// TABU SEARCH
+	//
+	// -----------------------------------------------------------------------
+
+	// IN:	Nothing
+	// OUT:	String		-> the number of iterations required or a message stating
+	//						that there were too many iterations
+	//
+	// Defaults the max number of iterations for tabu search to be 1000000
+	public String tabuSearch() {
+		return tabuSearch(1000000);
+	}
+
+	// IN:	long		-> the maximum number of allowed iterations before early
+	//						termination
+	// OUT:	String		-> the number of iterations required or a message stating
+	//						that there were too many iterations
+	//
+	// Min-conflicts search with a tabu list and weighted violations. Like local search it
+	// starts from a scramble (every column has 1 through n) and only swaps squares within a
+	// column, but violations are graded by how far off they are (see rowCost and cageCost),
+	// so a cage that is off by 1 scores better than one that is off by 50. Each row and cage
+	// also has a weight that grows every time the search gets stuck while it is violated, so
+	// constraints that keep being given up on become more important to fix.
+	//
+	// Each iteration makes the best swap within a column that involves a square in conflict,
+	// even if it makes the board worse. A swap is tabu if it would put a number back into a
+	// square it was taken out of recently, unless it would give the best (unweighted) cost so far.
+	public String tabuSearch(long max_iterations) {
+		int num_cages = _cage_operator.length;
+		int tenure = _n;
+		int[] tabu = new int[_n*_n*(_n+1)]; // Iteration until which a number may not return to a square
+		int[] row_weights = new int[_n];
+		int[] cage_weights = new int[num_cages];
+		int[] best_squares = new int[_n*_n*(_n-1)/2]; // Room for every swap (each pair is tried once)
+
+		long count = 0;
+		scramble();
+		Arrays.fill(row_weights, 1);
+		Arrays.fill(cage_weights, 1);
+		double cost = cost(null, null);
+		double best = cost;
+
+		for (int iteration = 1; !solved() && count < max_iterations; iteration++) {
+			count++;
+
+			// Find the best swap in any column that moves a square in conflict
+			double best_delta = Double.MAX_VALUE;
+			int num_best = 0;
+			for (int square1 = 0; square1 < _n*_n; square1++) {
+				if (!inConflict(square1)) continue;
+				int x = square1 / _n;
+				for (int i = 0; i < _n; i++) {
+					int square2 = x*_n + i;
+					if (square2 == square1 || _board[square1] == _board[square2]) continue;
+					if (inConflict(square2) && square2 < square1) continue; // Already tried from square2
+
+					double delta = swapCost(square1, square2, row_weights, cage_weights);
+					boolean is_tabu = tabu[square1*(_n+1) + _board[square2]] > iteration || tabu[square2*(_n+1) + _board[square1]] > iteration;
+					if (is_tabu && cost + swapCost(square1, square2, null, null) >= best) continue;
+
+					if (delta < best_delta) {
+						best_delta = delta;
+						num_best = 0;
+					}
+					if (delta == best_delta) {
+						best_squares[num_best++] = square1*_n*_n + square2;
+					}
+				}
+			}
+
+			// Stuck at a local minimum: make the constraints that are still violated weigh more
+			if (best_delta >= 0) {
+				for (int y = 0; y < _n; y++)
+					if (_row_repeats[y] > 0) row_weights[y]++;
+				for (int c = 0; c < num_cages; c++)
+					if (_cage_violated[c]) cage_weights[c]++;
+			}
+			if (num_best == 0) continue;
+
+			// Make the swap (ties broken randomly) and keep the old numbers from going straight back
+			int move = best_squares[_random.nextInt(num_best)];
+			int square1 = move / (_n*_n);
+			int square2 = move % (_n*_n);
+			tabu[square1*(_n+1) + _board[square1]] = iteration + tenure + _random.nextInt(tenure);
+			tabu[square2*(_n+1) + _board[square2]] = iteration + tenure + _random.nextInt(tenure);
+			swap(square1, square2);
+
+			cost = cost(null, null);
+			if (cost < best)
+				best = cost;
+		}
+
+		return "Tabu Search: " + (solved() ? count + " iterations" : "Exceeded " + max_iterations + " iterations");
+	}
+
+	// Returns whether a square is in a row with a repeat of its number or in a violated cage
+	private boolean inConflict(int square) {
+		return _row_counts[(square % _n)*(_n+1) + _board[square]] > 1 || _cage_violated[_cage_of[square]];
+	}
+
+	// IN:	int[]		-> the weight of each row (null for all 1)
+	//		int[]		-> the weight of each cage (null for all 1)
+	// OUT:	double		-> how far the (filled in) board is from a solution
+	//
+	// Graded violation measure used by tabu search: every repeated number in a row adds
+	// the row's weight and every cage adds its weight times its distance from its target
+	// (see cageCost). Columns are never scored because tabu search keeps each column a
+	// permutation of 1 through n
+	private double cost(int[] row_weights, int[] cage_weights) {
+		double cost = 0;
+		for (int y = 0; y < _n; y++)
+			cost += (row_weights == null ? 1 : row_weights[y]) * (_n - Integer.bitCount(_row_present[y] & ~1));
+		for (int c = 0; c < _cage_operator.length; c++)
+			cost += (cage_weights == null ? 1 : cage_weights[c]) * cageCost(c, -1, 0);
+		return cost;
+	}
+
+	// IN:	int			-> the index of a cage
+	//		int			-> the index of a square in the cage to treat as holding num
+	//						instead of its number (-1 for none)
+	//		int			-> the number to use for that square
+	// OUT:	double		-> the distance of the (filled in) cage from its target
+	//
+	// Sums and differences are scored by how far off they are. Products and quotients are
+	// scored by how far off they are in log scale so that large products are not weighted
+	// far more than everything else
+	private double cageCost(int c, int square, int num) {
+		int result = _cage_result[c];
+		int prev = square < 0 ? 0 : _board[square];
+		switch (_cage_operator[c]) {
+		case SUM:
+			return Math.abs(_cage_total[c] - prev + num - result);
+		case PRODUCT:
+			int total = square < 0 ? _cage_total[c] : _cage_total[c] / prev * num;
+			return 2 * Math.abs(Math.log((double) total / result));
+		case DIFFERENCE:
+		case QUOTIENT:
+			int a = _board[_cage_squares[_cage_start[c]]];
+			int b = _board[_cage_squares[_cage_start[c]+1]];
+			if (square == _cage_squares[_cage_start[c]]) a = num;
+			else if (square == _cage_squares[_cage_start[c]+1]) b = num;
+			if (_cage_operator[c] == DIFFERENCE)
+				return Math.abs(Math.abs(a - b) - result);
+			return 2 * Math.abs(Math.log((double) Math.max(a, b) / Math.min(a, b) / result));
+		default:
+			return Math.abs((square < 0 ? _board[_cage_squares[_cage_start[c]]] : num) - result);
+		}
+	}
+
+	// IN:	int			-> the index of a first square
+	//		int			-> the index of a second square in the same column
+	//		int[]		-> the weight of each row (null for all 1)
+	//		int[]		-> the weight of each cage (null for all 1)
+	// OUT:	double		-> how the weighted cost would change if the two squares were swapped
+	//
+	// Only the two rows and (if the squares are in different cages) the two cages can
+	// change, so nothing else is looked at and the board is not modified
+	private double swapCost(int square1, int square2, int[] row_weights, int[] cage_weights) {
+		int a = _board[square1];
+		int b = _board[square2];
+		int y1 = square1 % _n;
+		int y2 = square2 % _n;
+		double delta = (row_weights == null ? 1 : row_weights[y1]) * rowCost(y1, a, b)
+				+ (row_weights == null ? 1 : row_weights[y2]) * rowCost(y2, b, a);
+
+		int c1 = _cage_of[square1];
+		int c2 = _cage_of[square2];
+		if (c1 != c2)
+			delta += (cage_weights == null ? 1 : cage_weights[c1]) * (cageCost(c1, square1, b) - cageCost(c1, -1, 0))
+					+ (cage_weights == null ? 1 : cage_weights[c2]) * (cageCost(c2, square2, a) - cageCost(c2, -1, 0));
+		return delta;
+	}
+
+	// Returns how the repeats in a row change if one of its numbers is replaced by another
+	private int rowCost(int y, int out, int in) {
+		int base = y*(_n+1);
+		return (_row_counts[base + in] >= 1 ? 1 : 0) - (_row_counts[base + out] >= 2 ? 1 : 0);
+	}
+
+}
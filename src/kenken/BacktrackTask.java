@@ -0,0 +1,95 @@
+package kenken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A BacktrackTask searches one subtree of KenKen's backtracking search on a ForkJoinPool
+// (see KenKen.parallelBacktrack). While there are levels left to split, it branches on
+// the next Square and forks a task for each copy of the puzzle. Below that it runs the
+// normal backtracking on its own copy. All tasks share a stop flag that is set once a
+// solution is found or the node limit is reached, and they add the nodes they reach to
+// a total (while they search, so the limit holds across all of them) and to a count for
+// whichever worker thread ran them. The result of a task is
+// the solved KenKen, or null if its subtree has no solution (or it was stopped)
+public class BacktrackTask extends RecursiveTask<KenKen> {
+
+	private static final long serialVersionUID = 1L;
+
+	private KenKen _puzzle;
+	private boolean _optimized;
+	private int _split_depth;
+	private long _max_nodes;
+	private AtomicBoolean _stop;
+	private AtomicLong _total;
+	private Map<Integer, Long> _worker_nodes;
+
+	public BacktrackTask(KenKen puzzle, boolean optimized, int split_depth, long max_nodes, AtomicBoolean stop, AtomicLong total, Map<Integer, Long> worker_nodes) {
+		_puzzle = puzzle;
+		_optimized = optimized;
+		_split_depth = split_depth;
+		_max_nodes = max_nodes;
+		_stop = stop;
+		_total = total;
+		_worker_nodes = worker_nodes;
+	}
+
+	@Override
+	protected KenKen compute() {
+		if (_stop.get()) return null;
+		if (_puzzle.solved()) return found(_puzzle);
+
+		// Split this level into one task per number for the next Square
+		if (_split_depth > 0) {
+			record(1);
+			List<BacktrackTask> tasks = new ArrayList<BacktrackTask>();
+			for (KenKen branch : _puzzle.branch(_optimized))
+				tasks.add(new BacktrackTask(branch, _optimized, _split_depth-1, _max_nodes, _stop, _total, _worker_nodes));
+			invokeAll(tasks);
+			for (BacktrackTask task : tasks)
+				if (task.join() != null)
+					return task.join();
+			return null;
+		}
+
+		// Otherwise search this subtree on its own, adding to the total as it goes (see
+		// KenKen.backtrack) so it stops as soon as all the tasks together reach the limit
+		if (_total.get() > _max_nodes) {
+			_stop.set(true);
+			return null;
+		}
+		_puzzle.setStop(_stop);
+		_puzzle.setTotal(_total);
+		_puzzle.backtrack(_optimized, _max_nodes);
+		recordWorker(_puzzle.getNodes());
+		if (_total.get() > _max_nodes)
+			_stop.set(true);
+		return _puzzle.solved() ? found(_puzzle) : null;
+	}
+
+	// Tells the other tasks to stop and returns the solved puzzle
+	private KenKen found(KenKen solution) {
+		_stop.set(true);
+		return solution;
+	}
+
+	// Adds to the total node count (stopping every task if it is over the limit) and to
+	// the count for the current worker thread
+	private void record(long nodes) {
+		if (_total.addAndGet(nodes) > _max_nodes)
+			_stop.set(true);
+		recordWorker(nodes);
+	}
+	
+	// Adds to the count for the current worker thread
+	private void recordWorker(long nodes) {
+		Thread thread = Thread.currentThread();
+		int worker = thread instanceof ForkJoinWorkerThread ? ((ForkJoinWorkerThread) thread).getPoolIndex() : -1;
+		_worker_nodes.merge(worker, nodes, Long::sum);
+	}
+
+}
@@ -0,0 +1,136 @@
+package kenken;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// BatchSolver solves many puzzles in a single run instead of one per JVM like Main. The
+// input file holds any number of puzzles one after another in Main's input format (see
+// Puzzle), and they are read one at a time as they are needed. Puzzles are solved on a
+// fixed number of threads with one chosen algorithm, and the results are written in the
+// same order as the input as soon as each one (and every one before it) is done. Only a
+// limited number of puzzles are read ahead of the output, so the input can be any size.
+// A puzzle that fails to solve (for example one with a cage the solvers cannot handle)
+// gets an error line in its place and the rest of the batch carries on.
+//
+// Usage: java kenken/BatchSolver <input file> [algorithm] [threads]
+//		algorithm	-> backtrack, optimized, local (KenKen) or array, tabu (ArrayKenKen).
+//						array is ArrayKenKen's optimized backtracking, which reaches the
+//						same nodes as optimized. Defaults to optimized
+//		threads		-> defaults to the number of available processors
+public class BatchSolver {
+
+	public static final List<String> ALGORITHMS = Arrays.asList("backtrack", "optimized", "local", "array", "tabu");
+
+	// How many puzzles can be read ahead of the output for each thread
+	private static final int READ_AHEAD = 4;
+
+	public static void main(String[] args) throws FileNotFoundException {
+		if (args.length < 1) {
+			System.err.println("Usage: java kenken/BatchSolver <input file> [" + String.join("|", ALGORITHMS) + "] [threads]");
+			return;
+		}
+		String algorithm = args.length > 1 ? args[1] : "optimized";
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		Scanner reader = new Scanner(new BufferedReader(new FileReader(args[0])));
+		PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false);
+		long start = System.currentTimeMillis();
+		int count = solveAll(reader, algorithm, threads, out);
+		reader.close();
+		System.err.println("Solved " + count + " puzzles in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	// IN:	Scanner		-> the input to read puzzles from
+	//		String		-> which algorithm to use (one of ALGORITHMS)
+	//		int			-> the number of threads to solve on
+	//		PrintStream	-> where to write the results
+	// OUT:	int			-> the number of puzzles solved
+	//
+	// Reads puzzles until the input runs out, submitting each one to the thread pool. The
+	// results are kept in a queue in input order, and every finished result at the front of
+	// the queue is written out after each submission. Once READ_AHEAD puzzles per thread are
+	// waiting, reading stops until the oldest one is done.
+	public static int solveAll(Scanner reader, String algorithm, int threads, PrintStream out) {
+		if (!ALGORITHMS.contains(algorithm))
+			throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		Deque<Future<String>> pending = new ArrayDeque<Future<String>>();
+		int count = 0;
+		try {
+			Puzzle puzzle;
+			while ((puzzle = Puzzle.read(reader)) != null) {
+				Puzzle next = puzzle;
+				int index = ++count;
+				pending.add(executor.submit(() -> solve(index, next, algorithm)));
+
+				if (pending.size() >= READ_AHEAD * threads)
+					out.print(nextResult(pending, count));
+				while (!pending.isEmpty() && pending.peek().isDone())
+					out.print(nextResult(pending, count));
+				out.flush();
+			}
+			while (!pending.isEmpty())
+				out.print(nextResult(pending, count));
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			executor.shutdownNow();
+			out.flush();
+		}
+		return count;
+	}
+
+	// IN:	Deque<Future<String>>	-> the results that have not been written, in input order
+	//		int						-> the number of puzzles read so far
+	// OUT:	String					-> the oldest result, which is removed from the queue
+	//
+	// Waits for the oldest result. If solving its puzzle threw an exception, an error line
+	// is returned in its place instead. The position of the puzzle is worked out from how
+	// many puzzles have been read, since the results are removed in input order
+	private static String nextResult(Deque<Future<String>> pending, int count) throws InterruptedException {
+		int index = count - pending.size() + 1;
+		try {
+			return pending.remove().get();
+		} catch (ExecutionException e) {
+			return "Puzzle " + index + ": Error: " + e.getCause() + System.lineSeparator()
+					+ "*Not solved*" + System.lineSeparator() + System.lineSeparator();
+		}
+	}
+
+	// IN:	int			-> the position of the puzzle in the input (starting at 1)
+	//		Puzzle		-> the puzzle to solve
+	//		String		-> which algorithm to use (one of ALGORITHMS)
+	// OUT:	String		-> the result line for the puzzle followed by the solved puzzle
+	//
+	// Solves a single puzzle with the default node/iteration limit of the algorithm
+	public static String solve(int index, Puzzle puzzle, String algorithm) {
+		String result;
+		Object solution = null;
+		if (algorithm.equals("array") || algorithm.equals("tabu")) {
+			ArrayKenKen kenken = new ArrayKenKen(puzzle.getLayout(), puzzle.getCages());
+			result = algorithm.equals("array") ? kenken.backtrack(true) : kenken.tabuSearch();
+			if (kenken.solved()) solution = kenken;
+		} else {
+			KenKen kenken = new KenKen(puzzle.getLayout(), puzzle.getCages());
+			result = algorithm.equals("local") ? kenken.localSearch() : kenken.backtrack(algorithm.equals("optimized"));
+			if (kenken.solved()) solution = kenken;
+		}
+
+		return "Puzzle " + index + ": " + result + System.lineSeparator()
+				+ (solution != null ? solution.toString() : "*Not solved*" + System.lineSeparator() + System.lineSeparator());
+	}
+
+}
@@ -14,6 +14,11 @@ public class Constraint extends Observable implements Observer, Comparable<Const
 	
 	private List<Square> _squares = new ArrayList<Square>(); 
 	private int[] _nums; // Keeps track of how many of each number is included 
+	private int _present; // Bitmask of the numbers that are included
+	private int _total; // Running sum or product of a "+" or "*" cage (empty squares ignored)
+	private int _repeats; // How many numbers are included more than once
+	private int[] _combinations; // Every combination of numbers that satisfies a cage
+	private int[] _allowed; // Scratch space for candidates, one bitmask per Square
 	private int _result;
 	private String _operator;
 	private boolean _violated;
@@ -29,6 +34,7 @@ public class Constraint extends Observable implements Observer, Comparable<Const
 		_nums = new int[n+1];
 		_result = result;
 		_operator = operator;
+		_total = "*".equals(operator) ? 1 : 0;
 	}
 	
 	// Returns whether or not the constraint is violated
@@ -58,19 +64,138 @@ public class Constraint extends Observable implements Observer, Comparable<Const
 		return _nums[num] > 0;
 	}
 	
-	// Adds a square to the Constraint and updates all totals
+	// Adds a square to the Constraint and updates all totals (as if the
+	// square had just changed from empty to its current number)
 	public void addSquare(Square square) {
 		_squares.add(square);
 		square.addObserver(this);
-		_nums[square.getNumber()]++;
-		update(square, square.getNumber());
+		_combinations = null;
+		_nums[0]++;
+		update(square, 0);
+	}
+	
+	// Returns a bitmask of the numbers that the given empty Square in the Constraint
+	// could still take without making the Constraint impossible to satisfy. For a
+	// cage this is every number that appears in the Square's position in some
+	// combination that agrees with the numbers already in the cage and that the
+	// other empty Squares' rows and columns still allow (generalized arc consistency)
+	public int candidates(Square square) {
+		int n = _nums.length - 1;
+		int all = (1 << (n+1)) - 2;
+		if (_operator == null) // Row/column: anything not already used
+			return all & ~_present;
+		
+		int[] combinations = combinations();
+		int size = _squares.size();
+		int position = _squares.indexOf(square);
+		for (int i = 0; i < size; i++) {
+			Square other = _squares.get(i);
+			_allowed[i] = i == position ? all : other.getNumber() != 0 ? 1 << other.getNumber() : other.lineCandidates();
+		}
+		
+		int candidates = 0;
+		for (int i = 0; i < combinations.length; i += size) {
+			if ((candidates & (1 << combinations[i + position])) != 0) continue;
+			boolean supported = true;
+			for (int j = 0; j < size && supported; j++)
+				supported = (_allowed[j] & (1 << combinations[i + j])) != 0;
+			if (supported)
+				candidates |= 1 << combinations[i + position];
+		}
+		return candidates;
+	}
+	
+	// Returns every combination of numbers (one per Square, in the order the Squares
+	// were added, stored back to back) that satisfies the cage and does not repeat a
+	// number within a row or column of the cage. Built the first time it is needed
+	private int[] combinations() {
+		if (_combinations != null)
+			return _combinations;
+		
+		int size = _squares.size();
+		boolean[][] share_line = new boolean[size][size];
+		for (int i = 0; i < size; i++)
+			for (int j = 0; j < size; j++)
+				share_line[i][j] = i != j && _squares.get(i).sharesLine(_squares.get(j));
+		
+		List<int[]> found = new ArrayList<int[]>();
+		enumerate(new int[size], 0, share_line, found);
+		_combinations = new int[found.size() * size];
+		for (int i = 0; i < found.size(); i++)
+			System.arraycopy(found.get(i), 0, _combinations, i * size, size);
+		_allowed = new int[size];
+		return _combinations;
+	}
+	
+	// Recursively fills in combination[index] onward with every number that keeps
+	// the partial combination possible, saving each complete one that satisfies the cage
+	private void enumerate(int[] combination, int index, boolean[][] share_line, List<int[]> found) {
+		if (index == combination.length) {
+			if (satisfies(combination))
+				found.add(combination.clone());
+			return;
+		}
+		
+		int partial = _operator.equals("*") ? 1 : 0;
+		for (int i = 0; i < index; i++)
+			partial = _operator.equals("*") ? partial * combination[i] : partial + combination[i];
+		
+		for (int num = 1; num < _nums.length; num++) {
+			boolean repeated = false;
+			for (int i = 0; i < index; i++)
+				if (share_line[i][index] && combination[i] == num)
+					repeated = true;
+			if (repeated) continue;
+			if (_operator.equals("+") && partial + num + (combination.length - index - 1) > _result) break;
+			if (_operator.equals("*") && _result % (partial * num) != 0) continue;
+			
+			combination[index] = num;
+			enumerate(combination, index + 1, share_line, found);
+		}
+	}
+	
+	// Returns whether a complete combination of numbers satisfies the cage
+	private boolean satisfies(int[] combination) {
+		int total = _operator.equals("*") ? 1 : 0;
+		for (int num : combination)
+			total = _operator.equals("*") ? total * num : total + num;
+		
+		if (_operator.equals("+") || _operator.equals("*"))
+			return total == _result;
+		else if (_operator.equals("-"))
+			return Math.abs(combination[0] - combination[1]) == _result;
+		else if (_operator.equals("/"))
+			return Math.max(combination[0], combination[1]) == _result * Math.min(combination[0], combination[1]);
+		else
+			return combination[0] == _result;
+	}
+	
+	// Marks the options of every Square in the Constraint out of date
+	public void invalidateCandidates() {
+		for (int i = 0; i < _squares.size(); i++)
+			_squares.get(i).invalidateCandidates();
+	}
+	
+	// Returns false if an empty Square in the Constraint has no options left
+	public boolean viable() {
+		for (int i = 0; i < _squares.size(); i++)
+			if (_squares.get(i).getNumber() == 0 && _squares.get(i).getCandidates() == 0)
+				return false;
+		return true;
 	}
 
-	// Updates totals and _violation because a square has been changed or added
+	// Updates totals and _violation because a square has been changed or added.
+	// The options of every Square in the Constraint are then marked out of date,
+	// along with the Squares caged with them if this is a row/column (their
+	// options depend on what this row/column allows)
 	@Override
 	public void update(Observable observable, Object prev) {
 		boolean was_violated = _violated;
 		_violated = calculateViolation((Square) observable, (Integer) prev);
+		invalidateCandidates();
+		if (!isCage())
+			for (int i = 0; i < _squares.size(); i++)
+				_squares.get(i).invalidateCage();
 		
 		// Update KenKen if its status has changed
 		for (Observer observer : _observers)
@@ -78,42 +203,87 @@ public class Constraint extends Observable implements Observer, Comparable<Const
 				observer.update(this, _violated);
 	}
 	
-	// Updates number counts and returns whether there is a violation
+	// Updates number counts and running totals from the previous and new number
+	// of the changed square (without rescanning the other squares) and returns
+	// whether there is a violation
 	private boolean calculateViolation(Square square, int prev) {
-		// Keeping track of the count for each number
-		_nums[square.getNumber()]++;
+		int num = square.getNumber();
+		
+		// Setting a square to the number it already holds changes nothing
+		if (num == prev) return _violated;
+		
+		// Keeping track of the count for each number and how many are repeated
+		_nums[num]++;
+		if (num != 0 && _nums[num] == 2) _repeats++;
 		_nums[prev]--;
+		if (prev != 0 && _nums[prev] == 1) _repeats--;
+		if (num != 0) _present |= 1 << num;
+		if (_nums[prev] == 0) _present &= ~(1 << prev);
+		
+		_total = total(_total, prev, num);
+		return violated(_repeats, _total, _nums[0], square, num);
+	}
+	
+	// IN:	Square		-> a Square in the Constraint
+	//		int			-> a number the Square could hold
+	// OUT:	int			-> how the number of violations would change (-1, 0 or 1)
+	//
+	// Works out whether the Constraint would be violated if the Square held the given
+	// number, from the counts and running total in O(1) and without changing anything.
+	// Used by local search to evaluate swaps without making them
+	public int violationDelta(Square square, int num) {
+		int prev = square.getNumber();
+		if (prev == num) return 0;
 		
-		if (_operator == null) { // This is just a row/column check so no math required
-			for (int i = 1; i < _nums.length; i++)
-				if (_nums[i] > 1) return true; // A number is repeated so it's violated
-			return false;
+		int repeats = _repeats;
+		if (prev != 0 && _nums[prev] == 2) repeats--;
+		if (num != 0 && _nums[num] == 1) repeats++;
+		int free = _nums[0] + (prev == 0 ? 1 : 0) - (num == 0 ? 1 : 0);
+		
+		boolean violated = violated(repeats, total(_total, prev, num), free, square, num);
+		return (violated ? 1 : 0) - (_violated ? 1 : 0);
+	}
+	
+	// Returns the running sum or product after a square changes from prev to num
+	private int total(int total, int prev, int num) {
+		if ("+".equals(_operator)) {
+			total += num - prev;
+		} else if ("*".equals(_operator)) {
+			if (prev != 0) total /= prev;
+			if (num != 0) total *= num;
 		}
+		return total;
+	}
+	
+	// Returns whether there is a violation given the number of repeated numbers, the
+	// running total and the number of empty squares, with the given square holding num
+	private boolean violated(int repeats, int total, int free, Square square, int num) {
+		if (_operator == null) // This is just a row/column check so no math required
+			return repeats > 0; // A number is repeated so it's violated
 		
 		// Math check, handles each operation individually
 		if (_operator.equals("+")) {
-			int result = 0;
-			for (int i = 0; i < _squares.size(); i++)
-				result += _squares.get(i).getNumber();
-			if (_result - result < _nums[0]) return true;
-			return _nums[0] == 0 && result != _result;
+			if (_result - total < free) return true;
+			return free == 0 && total != _result;
 		} else if (_operator.equals("-")) {
-			if (_nums[0] > 0) return false;
-			return Math.max(_squares.get(0).getNumber() - _squares.get(1).getNumber(), _squares.get(1).getNumber() - _squares.get(0).getNumber()) != _result;
+			if (free > 0) return false;
+			return Math.max(numberOf(0, square, num) - numberOf(1, square, num), numberOf(1, square, num) - numberOf(0, square, num)) != _result;
 		} else if (_operator.equals("*")) {
-			int result = 1;
-			for (int i = 0; i < _squares.size(); i++)
-				result *= _squares.get(i).getNumber();
-			if (result > _result) return true;
-			return _nums[0] == 0 && result != _result;
+			if (total > _result) return true;
+			return free == 0 && total != _result;
 		} else if (_operator.equals("/")) {
-			if (_nums[0] > 0) return false;
-			return Math.max(_squares.get(0).getNumber() / _squares.get(1).getNumber(), _squares.get(1).getNumber() / _squares.get(0).getNumber()) != _result;
+			if (free > 0) return false;
+			return Math.max(numberOf(0, square, num) / numberOf(1, square, num), numberOf(1, square, num) / numberOf(0, square, num)) != _result;
 		} else {
-			return _nums[0] == 0 && _squares.get(0).getNumber() != _result;
+			return free == 0 && numberOf(0, square, num) != _result;
 		}
 		
 	}
+	
+	// Returns the number in the Square at the given index, or num if it is the given square
+	private int numberOf(int index, Square square, int num) {
+		return _squares.get(index) == square ? num : _squares.get(index).getNumber();
+	}
 
 	// Orders Constraints according to how restricted they are to aid sorting Squares
 	@Override
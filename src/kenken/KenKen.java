@@ -10,6 +10,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 // KenKen contains a 2d array of Squares that represents the KenKen puzzle as well
 // as a set of Constraints that are imposed on the Squares (rows, columns, cages).
@@ -18,11 +31,25 @@ import java.util.Observer;
 // holds so it can keep an efficient running count of the number of violations.
 public class KenKen implements Observer {
 
+	// How many levels of the search tree are split into separate tasks for parallel backtracking
+	private static final int SPLIT_DEPTH = 3;
+	
+	// How many nodes a worker reaches between adding them to the total for parallel backtracking
+	private static final int TOTAL_BATCH = 1024;
+
 	private Square[][] _squares;
 	private Collection<Constraint> _constraints = new HashSet<Constraint>();
 	private int _violations = 0;
 	
+	private char[][] _layout;
+	private Map<Character, String> _cages;
+	private long _nodes; // How many nodes the last backtrack call reached
+	private AtomicBoolean _stop; // Set by another thread to stop backtracking early
+	private AtomicLong _total; // Nodes reached by every thread, when backtracking in parallel
+	
 	public KenKen(char[][] layout, Map<Character, String> cages) {
+		_layout = layout;
+		_cages = cages;
 		initiateBoard(layout.length);
 		addRowColumnConstraints();
 		createCages(layout, cages);
@@ -140,12 +167,23 @@ public class KenKen implements Observer {
 	//
 	// Prints out the puzzle in an n by n format
 	public void print() {
+		System.out.print(toString());
+	}
+	
+	// IN:	Nothing
+	// OUT:	String		-> the puzzle in an n by n format
+	//
+	// Same output as print, for callers that write it somewhere else (see BatchSolver)
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder();
 		for (int i = 0; i < _squares.length; i++) {
 			for (int j = 0; j < _squares.length; j++)
-				System.out.print(_squares[j][i].getNumber() + " ");
-			System.out.println();
+				out.append(_squares[j][i].getNumber() + " ");
+			out.append(System.lineSeparator());
 		}
-		System.out.println();
+		out.append(System.lineSeparator());
+		return out.toString();
 	}	
 
 	// -----------------------------------------------------------------------
@@ -170,9 +208,9 @@ public class KenKen implements Observer {
 	//						a message stating that there were too many nodes
 	//
 	// Begins the recursive call for backtracking. It initializes a count of the
-	// number of nodes and a list of all of the Squares. If it is optimized
-	// backtracking, the list will later be sorted according to which squares are most
-	// constricted, then by most constricting.
+	// number of nodes and a list of all of the empty Squares. If it is optimized
+	// backtracking, the Squares are put in a SquareQueue instead, which hands them
+	// out according to which squares are most constricted, then by most constricting.
 	public String backtrack(boolean optimized, long max_nodes) {
 		
 		// Initialize count pointer and list of squares
@@ -180,10 +218,19 @@ public class KenKen implements Observer {
 		List<Square> list = new LinkedList<Square>();
 		for (int i = 0; i < _squares.length; i++)
 			for (int j = 0; j < _squares.length; j++)
-				list.add(_squares[i][j]);
+				if (_squares[i][j].getNumber() == 0)
+					list.add(_squares[i][j]);
+		SquareQueue queue = null;
+		if (optimized) {
+			queue = new SquareQueue(list, _squares.length);
+			list.clear();
+		}
 		
 		// Call recursive function
-		backtrack(optimized, list, count, max_nodes);
+		backtrack(optimized, list, queue, count, max_nodes);
+		_nodes = count[0];
+		if (_total != null)
+			_total.addAndGet(count[0] % TOTAL_BATCH);
 		
 		// It is either solved or has exceeded the max count. Returns appropriate response
 		return (optimized ? "Optimized " : "") + "Backtracking: " + (solved() ? count[0] + " nodes" : "Exceeded " + max_nodes + " nodes");
@@ -191,23 +238,30 @@ public class KenKen implements Observer {
 	
 	// IN:	boolean		-> whether or not it is optimized backtracking
 	//		List<Square>-> a list of the remaining Squares that have not yet been
-	//						assigned a value
+	//						assigned a value (unoptimized)
+	//		SquareQueue	-> a queue of the remaining Squares (optimized)
 	//		long[]		-> a pointer to where the count of the number of nodes is stored
 	//		long		-> the maximum number of nodes to explore before early
-	//						termination
+	//						termination (across all threads if there is a shared total)
 	// OUT:	boolean		-> whether or not backtracking is necessary (i.e. all future nodes
 	//						lead to an error)
 	//
 	// Recursive backtracking method. Each call looks at each possibility for the next square
 	// and chooses the first option that will not require backtracking. If optimized is true
 	// the squares will be ordered by how constricted/constricting they are and only reasonable
-	// options will be attempted for the number values.
-	private boolean backtrack(boolean optimized, List<Square> list, long[] count, long max_nodes) {
+	// options will be attempted for the number values. When backtracking in parallel, the
+	// nodes are added to the shared total every TOTAL_BATCH nodes, and every thread is told
+	// to stop once the total is over the maximum.
+	private boolean backtrack(boolean optimized, List<Square> list, SquareQueue queue, long[] count, long max_nodes) {
 		
-		// If it has exceeded the maximum count, it should give up -> there is no
-		// need to backtrack
-		if (count[0] > max_nodes) return false;
+		// If it has exceeded the maximum count (or another thread has asked it to
+		// stop), it should give up -> there is no need to backtrack
+		if (count[0] > max_nodes || _stop != null && _stop.get()) return false;
 		count[0]++;
+		if (_total != null && count[0] % TOTAL_BATCH == 0 && _total.addAndGet(TOTAL_BATCH) > max_nodes) {
+			_stop.set(true);
+			return false;
+		}
 		
 		// If a constraint is currently violated, a mistake has already been
 		// made -> backtracking is necessary
@@ -215,23 +269,23 @@ public class KenKen implements Observer {
 		
 		// Since no constraints have been violated, an empty list of remaining Squares
 		// implies that the puzzle has been solved -> backtracking is not necessary
-		if (list.size() == 0) return false;
-		
-		// If this is optimized backtracking, sort the Squares to ensure that the
-		// first Square is the most constricted (or most constricting for ties)
-		if (optimized) Collections.sort(list);
+		if (optimized ? queue.isEmpty() : list.size() == 0) return false;
 		
-		// Take the top square and try each number for it. If it is optimized backtracking,
-		// a new node is only created for reasonable numbers.
-		Square square = list.remove(0);
+		// Take the top square and try each number for it. If this is optimized backtracking,
+		// the queue gives the most constricted Square (or most constricting for ties), only
+		// the numbers still in the Square's options are tried and a new node is only
+		// created if no other empty Square has run out of options (forward checking).
+		Square square = optimized ? queue.poll() : list.remove(0);
+		int candidates = square.getCandidates();
 		for (int i = 1; i <= _squares.length; i++) {
+			if (optimized && (candidates & (1 << i)) == 0) continue;
 			square.setNumber(i);
 			
-			if (optimized && _violations != 0) continue;
+			if (optimized && (_violations != 0 || !square.forwardCheck())) continue;
 			
 			// Recursive call. If backtracking is not necessary from the change that has been
 			// made, then backtracking is not necessary from the current position.
-			if (!backtrack(optimized, list, count, max_nodes))
+			if (!backtrack(optimized, list, queue, count, max_nodes))
 				return false;
 		}
 		
@@ -239,10 +293,121 @@ public class KenKen implements Observer {
 		// necessary from the current position. Reset the Square and add it to the list of
 		// remaining Squares
 		square.setNumber(0);
-		list.add(0, square);
+		if (optimized) queue.add(square);
+		else list.add(0, square);
 		return true;
 	}
 
+
+	// -----------------------------------------------------------------------
+	//
+	// PARALLEL BACKTRACKING
+	// 
+	// -----------------------------------------------------------------------
+	
+	// IN:	boolean		-> whether or not it is optimized backtracking
+	//		long		-> the maximum number of nodes to explore (across all
+	//						workers) before early termination
+	// OUT:	String		-> the number of nodes reached while backtracking or
+	//						a message stating that there were too many nodes
+	//
+	// Defaults the number of workers to the number of available processors
+	public String parallelBacktrack(boolean optimized, long max_nodes) {
+		return parallelBacktrack(optimized, max_nodes, Runtime.getRuntime().availableProcessors());
+	}
+	
+	// IN:	boolean		-> whether or not it is optimized backtracking
+	//		long		-> the maximum number of nodes to explore (across all
+	//						workers) before early termination
+	//		int			-> the number of worker threads
+	// OUT:	String		-> the number of nodes reached while backtracking or
+	//						a message stating that there were too many nodes, followed
+	//						by the number of nodes each worker reached
+	//
+	// Backtracking on a ForkJoinPool. The top SPLIT_DEPTH levels of the search tree are
+	// split into BacktrackTasks, each with its own copy of the puzzle, and idle workers
+	// steal the tasks that have not been started yet. Once any worker finds a solution
+	// the rest are told to stop, and the solution is copied into this puzzle.
+	public String parallelBacktrack(boolean optimized, long max_nodes, int threads) {
+		AtomicBoolean stop = new AtomicBoolean();
+		AtomicLong total = new AtomicLong();
+		Map<Integer, Long> worker_nodes = new ConcurrentHashMap<Integer, Long>();
+		
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		KenKen solution;
+		try {
+			solution = pool.invoke(new BacktrackTask(copy(), optimized, SPLIT_DEPTH, max_nodes, stop, total, worker_nodes));
+		} finally {
+			pool.shutdown();
+		}
+		
+		if (solution != null)
+			for (int i = 0; i < _squares.length; i++)
+				for (int j = 0; j < _squares.length; j++)
+					_squares[i][j].setNumber(solution._squares[i][j].getNumber());
+		
+		// It is either solved or has exceeded the max count. Returns appropriate response
+		return "Parallel " + (optimized ? "Optimized " : "") + "Backtracking: " + (solved() ? total.get() + " nodes" : "Exceeded " + max_nodes + " nodes")
+				+ " (nodes per worker: " + new TreeMap<Integer, Long>(worker_nodes) + ")";
+	}
+	
+	// IN:	boolean			-> whether or not it is optimized backtracking
+	// OUT:	List<KenKen>	-> a copy of the puzzle for each number tried in the next Square
+	//
+	// Used to split the top of the search tree for parallel backtracking. The next Square
+	// is chosen and filled in the same way backtrack does (first empty Square, or the one
+	// with the fewest options if optimized), but each number that does not cause a violation
+	// goes into its own copy of the puzzle instead of being tried in place
+	List<KenKen> branch(boolean optimized) {
+		List<KenKen> branches = new ArrayList<KenKen>();
+		if (_violations > 0) return branches;
+		
+		int x = -1;
+		int y = -1;
+		for (int i = 0; i < _squares.length; i++)
+			for (int j = 0; j < _squares.length; j++)
+				if (_squares[i][j].getNumber() == 0 && (x < 0 || optimized && _squares[i][j].domainSize() < _squares[x][y].domainSize())) {
+					x = i;
+					y = j;
+				}
+		if (x < 0) return branches;
+		
+		int candidates = _squares[x][y].getCandidates();
+		for (int i = 1; i <= _squares.length; i++) {
+			if (optimized && (candidates & (1 << i)) == 0) continue;
+			KenKen branch = copy();
+			branch._squares[x][y].setNumber(i);
+			if (branch._violations == 0 && (!optimized || branch._squares[x][y].forwardCheck()))
+				branches.add(branch);
+		}
+		return branches;
+	}
+	
+	// Returns a new KenKen with the same cages and the same numbers filled in
+	KenKen copy() {
+		KenKen copy = new KenKen(_layout, _cages);
+		for (int i = 0; i < _squares.length; i++)
+			for (int j = 0; j < _squares.length; j++)
+				if (_squares[i][j].getNumber() != 0)
+					copy._squares[i][j].setNumber(_squares[i][j].getNumber());
+		return copy;
+	}
+	
+	// Returns how many nodes the last call to backtrack reached
+	long getNodes() {
+		return _nodes;
+	}
+	
+	// Lets another thread stop backtracking early by setting the flag
+	void setStop(AtomicBoolean stop) {
+		_stop = stop;
+	}
+	
+	// Makes backtracking add its nodes to a total shared with other threads and hold the
+	// node limit against that total
+	void setTotal(AtomicLong total) {
+		_total = total;
+	}
 	
 	// -----------------------------------------------------------------------
 	//
@@ -270,38 +435,54 @@ public class KenKen implements Observer {
 	// one Square at a time. The selected change is the one that will reduce the total
 	// number of violated constraints by the most.
 	public String localSearch(long max_iterations) {
-		int count = 0;
+		long count = localSearch(max_iterations, new Random(), new AtomicBoolean(), new AtomicLong(), new AtomicInteger(Integer.MAX_VALUE));
+		
+		// It is either solved or has exceeded the max count. Returns appropriate response
+		return "Local Search: " + (solved() ? count + " iterations" : "Exceeded " + max_iterations + " iterations");
+	}
+	
+	// IN:	long			-> the maximum number of allowed iterations (across all
+	//							threads) before early termination
+	//		Random			-> used to scramble the puzzle before each restart
+	//		AtomicBoolean	-> set once any thread has found a solution
+	//		AtomicLong		-> the total number of iterations across all threads
+	//		AtomicInteger	-> the fewest violations any restart has ended with
+	// OUT:	long			-> the number of iterations made by this call
+	//
+	// The local search loop, shared by localSearch and parallelLocalSearch. Restarts until
+	// this puzzle is solved, another thread has solved its copy, or the iterations across
+	// all threads reach the maximum.
+	private long localSearch(long max_iterations, Random random, AtomicBoolean stop, AtomicLong total, AtomicInteger best) {
+		long count = 0;
 		int max_swaps = _squares.length*_squares.length*(_squares.length-1)/2;
 		
 		// This loop will not terminate until a solution is found or the maximum iterations
 		// has been reached.
-		while(!solved() && count < max_iterations) {
+		while(!solved() && !stop.get() && total.get() < max_iterations) {
 			
 			// Pick a semi-random "solution" and perform a local search at least "max swaps"
 			// times before resetting (enough to do each swap once)
-			scramble();
-			for (int reset = 0; reset < max_swaps; reset++) {
+			scramble(random);
+			for (int reset = 0; reset < max_swaps && !stop.get(); reset++) {
 				
 				int index1 = 0;
 				int index2 = 0;
 				int column = 0;
 				int min_violations = 3*_squares.length*_squares.length; // essentially MAX_VIOLATIONS
 				
-				// Try swapping each pair of squares within each column and save whichever
-				// swap minimizes the number of violations
+				// Evaluate swapping each pair of squares within each column (without making
+				// the swap) and save whichever swap minimizes the number of violations
 				for (int col = 0; col < _squares.length; col++)
 					for (int i = 0; i < _squares.length-1; i++) {
 						for (int j = i+1; j < _squares.length; j++) {
-							swap(_squares[col][i],_squares[col][j]);
+							int violations = _violations + _squares[col][i].swapDelta(_squares[col][j]);
 							
-							if (_violations <= min_violations) {
+							if (violations <= min_violations) {
 								index1 = i;
 								index2 = j;
 								column = col;
-								min_violations = _violations;
+								min_violations = violations;
 							}
-							
-							swap(_squares[col][i],_squares[col][j]);
 						}
 					}
 				
@@ -312,11 +493,71 @@ public class KenKen implements Observer {
 				// Otherwise a change was found, so make that change and increment the count
 				swap(_squares[column][index1],_squares[column][index2]);
 				count++;
+				total.incrementAndGet();
 			}
+			best.accumulateAndGet(_violations, Math::min);
 		}
 		
+		if (solved()) stop.set(true);
+		return count;
+	}
+	
+	// IN:	long		-> the maximum number of allowed iterations (across all
+	//						threads) before early termination
+	// OUT:	String		-> the number of iterations required reached while running
+	//						the local search or a message stating that there were
+	//						too many iterations
+	//
+	// Defaults the number of threads to the number of available processors
+	public String parallelLocalSearch(long max_iterations) {
+		return parallelLocalSearch(max_iterations, Runtime.getRuntime().availableProcessors());
+	}
+	
+	// IN:	long		-> the maximum number of allowed iterations (across all
+	//						threads) before early termination
+	//		int			-> the number of restarts to run at the same time
+	// OUT:	String		-> the total number of iterations or a message stating that
+	//						there were too many iterations (with the fewest violations
+	//						reached), followed by the iterations made by each thread
+	//
+	// Runs the local search on several threads at once, each on its own copy of the
+	// puzzle and with its own thread-local Random. Restarts are independent, so the
+	// only shared state is the stop flag (set by whichever thread finds a solution first),
+	// the total iteration count and the best number of violations so far. The solution
+	// is copied into this puzzle.
+	public String parallelLocalSearch(long max_iterations, int threads) {
+		AtomicBoolean stop = new AtomicBoolean();
+		AtomicLong total = new AtomicLong();
+		AtomicInteger best = new AtomicInteger(Integer.MAX_VALUE);
+		
+		List<KenKen> copies = new ArrayList<KenKen>();
+		List<Callable<Long>> searches = new ArrayList<Callable<Long>>();
+		for (int i = 0; i < threads; i++) {
+			KenKen copy = copy();
+			copies.add(copy);
+			searches.add(() -> copy.localSearch(max_iterations, ThreadLocalRandom.current(), stop, total, best));
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Long> counts = new ArrayList<Long>();
+		try {
+			for (Future<Long> future : executor.invokeAll(searches))
+				counts.add(future.get());
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			executor.shutdown();
+		}
+		
+		for (KenKen copy : copies)
+			if (copy.solved())
+				for (int i = 0; i < _squares.length; i++)
+					for (int j = 0; j < _squares.length; j++)
+						_squares[i][j].setNumber(copy._squares[i][j].getNumber());
+		
 		// It is either solved or has exceeded the max count. Returns appropriate response
-		return "Local Search: " + (solved() ? count + " iterations" : "Exceeded " + max_iterations + " iterations");
+		return "Parallel Local Search: " + (solved() ? total.get() + " iterations" : "Exceeded " + max_iterations + " iterations (fewest violations: " + best.get() + ")")
+				+ " (iterations per thread: " + counts + ")";
 	}
 	
 	// IN:	Nothing
@@ -324,7 +565,7 @@ public class KenKen implements Observer {
 	//
 	// Randomly fills in the puzzle with numbers 1 through n, ensuring each row and column uses
 	// the numbers 1 through n exactly once. Used for local search
-	private void scramble() {
+	private void scramble(Random random) {
 		List<Integer> numbers = new ArrayList<Integer>(_squares.length);
 		for (int i = 1; i <= _squares.length; i++)
 			numbers.add(i);
@@ -334,7 +575,7 @@ public class KenKen implements Observer {
 				_squares[i][j].setNumber(0);
 		
 		for (int i = 0; i < _squares.length; i++) {
-			Collections.shuffle(numbers);
+			Collections.shuffle(numbers, random);
 			for (int j = 0; j < _squares.length; j++)
 				_squares[i][j].setNumber(numbers.get(j));
 		}
@@ -2,7 +2,6 @@ package kenken;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Scanner;
 
@@ -18,36 +17,10 @@ public class Main {
 			
 		}
 		
-		// Read the first line to determine n
-		String first_line = reader.next();
-		int n = first_line.length();
-		
-		// Initialize n by n layout for the puzzle and HashMap that will map each
-		// character to a mathematical expression
-		char[][] layout = new char[n][n];
-		Map<Character, String> cages = new HashMap<Character, String>();
-		
-		// Reread the first line and put it in the layout and initialize that
-		// letter in the map
-		for (int i = 0; i < n; i++) {
-			layout[i][0] = first_line.charAt(i);
-			cages.put(first_line.charAt(i), null);
-		}
-		
-		// Repeat for all other lines
-		for (int j = 1; j < n; j++) {
-			first_line = reader.next();
-			for (int i = 0; i < n; i++) {
-				layout[i][j] = first_line.charAt(i);
-				cages.put(first_line.charAt(i), null);
-			}
-		}
-
-		// For each letter in the map, map it to its corresponding expression
-		for (int i = 0; i < cages.keySet().size(); i++) {
-			String line = reader.next();
-			cages.put(line.charAt(0), line.substring(2));
-		}
+		// Read the layout and the expression for each cage
+		Puzzle puzzle = Puzzle.read(reader);
+		char[][] layout = puzzle.getLayout();
+		Map<Character, String> cages = puzzle.getCages();
 		reader.close();
 		
 		// Solve the puzzle using backtracking, optimized backtracking, and local search.
@@ -0,0 +1,72 @@
+package kenken;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+
+// Puzzle holds the input for one KenKen puzzle: the n by n layout of the cages and the
+// expression for each cage. The input format is n lines of n characters (one character
+// per cage) followed by one "character:expression" line for each cage. Since the size and
+// number of cages are known from the first line, several puzzles can be written one after
+// another in the same file and read back one at a time
+public class Puzzle {
+
+	private char[][] _layout;
+	private Map<Character, String> _cages;
+
+	public Puzzle(char[][] layout, Map<Character, String> cages) {
+		_layout = layout;
+		_cages = cages;
+	}
+
+	public char[][] getLayout() {
+		return _layout;
+	}
+
+	public Map<Character, String> getCages() {
+		return _cages;
+	}
+
+	// IN:	Scanner		-> the input to read from
+	// OUT:	Puzzle		-> the next puzzle in the input, or null if there are no more
+	//
+	// Reads a single puzzle, leaving the Scanner at the start of the next one
+	public static Puzzle read(Scanner reader) {
+		if (!reader.hasNext())
+			return null;
+
+		// Read the first line to determine n
+		String first_line = reader.next();
+		int n = first_line.length();
+
+		// Initialize n by n layout for the puzzle and HashMap that will map each
+		// character to a mathematical expression
+		char[][] layout = new char[n][n];
+		Map<Character, String> cages = new HashMap<Character, String>();
+
+		// Reread the first line and put it in the layout and initialize that
+		// letter in the map
+		for (int i = 0; i < n; i++) {
+			layout[i][0] = first_line.charAt(i);
+			cages.put(first_line.charAt(i), null);
+		}
+
+		// Repeat for all other lines
+		for (int j = 1; j < n; j++) {
+			first_line = reader.next();
+			for (int i = 0; i < n; i++) {
+				layout[i][j] = first_line.charAt(i);
+				cages.put(first_line.charAt(i), null);
+			}
+		}
+
+		// For each letter in the map, map it to its corresponding expression
+		for (int i = 0; i < cages.keySet().size(); i++) {
+			String line = reader.next();
+			cages.put(line.charAt(0), line.substring(2));
+		}
+
+		return new Puzzle(layout, cages);
+	}
+
+}
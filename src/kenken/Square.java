@@ -2,29 +2,134 @@ package kenken;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 
 // Squares contain one number and a list of Constraints that are imposed
 // on it. Squares are an Observable and are observed by the Constraints 
-// so that the Constraints only update when a relevant Square is changed
+// so that the Constraints only update when a relevant Square is changed.
+// Each Square also keeps a bitmask of the numbers it could still take
+// (bit i is set if i is still an option) which the Constraints prune
+// and restore as their Squares change
 public class Square extends Observable implements Comparable<Square> {
 	
 	private int _number;
-	private List<Integer> _options = new LinkedList<Integer>();
+	private int _candidates;
+	private boolean _stale;
+	private SquareQueue _queue;
+	private int _queue_index;
 	private List<Constraint> _observers = new ArrayList<Constraint>();
 	
 	public Square(int n) {
-		for (int i = n; i > 0; i--)
-			_options.add(0, i);
+		_candidates = (1 << (n+1)) - 2;
 	}
 	
 	public int getNumber() {
 		return _number;
 	}
 	
+	// Returns the bitmask of numbers that are still options for the Square,
+	// recalculating it first if one of its Constraints has changed
+	public int getCandidates() {
+		if (_stale) {
+			int candidates = -1;
+			for (Constraint constraint : _observers)
+				candidates &= constraint.candidates(this);
+			_candidates = candidates;
+			_stale = false;
+		}
+		return _candidates;
+	}
+	
+	// Returns the numbers that the Square's row and column still allow,
+	// ignoring its cage. Used by the cage to check its combinations
+	public int lineCandidates() {
+		int candidates = -1;
+		for (Constraint constraint : _observers)
+			if (!constraint.isCage())
+				candidates &= constraint.candidates(this);
+		return candidates;
+	}
+	
+	// Returns whether or not the Square is in the same row or column as another
+	public boolean sharesLine(Square other) {
+		for (Constraint constraint : _observers)
+			if (!constraint.isCage() && other._observers.contains(constraint))
+				return true;
+		return false;
+	}
+	
+	// Returns how many numbers are still options for the Square
+	public int domainSize() {
+		return Integer.bitCount(getCandidates());
+	}
+	
+	// Called by a Constraint whenever one of its Squares changes. The options
+	// are recalculated as the intersection of what each Constraint still allows
+	// the next time they are needed, so options removed by an assignment come
+	// back when that assignment is undone
+	public void invalidateCandidates() {
+		_stale = true;
+		if (_queue != null)
+			_queue.changed(_queue_index);
+	}
+	
+	// Called by a row/column when one of its Squares changes. The options of the
+	// other Squares in this Square's cage depend on its row and column, so they
+	// are marked out of date as well
+	public void invalidateCage() {
+		for (Constraint constraint : _observers)
+			if (constraint.isCage())
+				constraint.invalidateCandidates();
+	}
+	
+	// Returns how many empty Squares share a Constraint with this Square (counting
+	// itself once for each Constraint). Used as a measurement of most constricting
+	public int degree() {
+		int degree = 0;
+		for (Constraint constraint : _observers)
+			degree += constraint.freedom();
+		return degree;
+	}
+	
+	// Lets a SquareQueue know when the Square's options go out of date
+	public void setQueue(SquareQueue queue, int index) {
+		_queue = queue;
+		_queue_index = index;
+	}
+	
+	public int getQueueIndex() {
+		return _queue_index;
+	}
+	
+	// Returns how the number of violated Constraints would change if this Square
+	// and the other Square swapped numbers, without changing either. Constraints the
+	// two Squares share (their column, or a cage) are unaffected by a swap and are
+	// skipped, so only the two rows and at most two cages are looked at
+	public int swapDelta(Square other) {
+		return changeDelta(other.getNumber(), other) + other.changeDelta(_number, this);
+	}
+	
+	// Returns how the number of violated Constraints not shared with the other
+	// Square would change if this Square held num
+	private int changeDelta(int num, Square other) {
+		int delta = 0;
+		for (Constraint constraint : _observers)
+			if (!other._observers.contains(constraint))
+				delta += constraint.violationDelta(this, num);
+		return delta;
+	}
+	
+	// Forward checking: returns false if some empty Square sharing a
+	// Constraint with this one has no options left
+	public boolean forwardCheck() {
+		for (Constraint constraint : _observers)
+			if (!constraint.viable())
+				return false;
+		return true;
+	}
+	
 	// Takes in a number and sets it as the current number for the Square. 
 	// All relevant Constraints are notified of the change
 	public void setNumber(int num) {
@@ -41,11 +146,13 @@ public class Square extends Observable implements Comparable<Square> {
 	}
 
 	// Used to sort Squares for optimized backtrack method. The most
-	// constricted squares (based on lack of freedom) will be at the
-	// front of the list and the most constricting squares (restricting)
-	// will be used to break ties
+	// constricted squares (fewest options left, then lack of freedom)
+	// will be at the front of the list and the most constricting squares
+	// (restricting) will be used to break ties
 	@Override
 	public int compareTo(Square other) {
+		if (domainSize() != other.domainSize())
+			return domainSize() - other.domainSize();
 		Collections.sort(_observers);
 		Collections.sort(other._observers);
 		for (int i = 0; i < _observers.size(); i++)
@@ -0,0 +1,122 @@
+package kenken;
+
+import java.util.List;
+
+// SquareQueue picks the next Square for optimized backtracking without sorting. The empty
+// Squares are kept in buckets keyed first by how many options they have left (most
+// constricted first) and then by how many empty Squares share a Constraint with them (most
+// constricting first). Squares tell the queue when their options go out of date, and those
+// Squares are moved to their new bucket the next time a Square is taken from the queue, so
+// only the Squares near the last change are looked at instead of every Square
+public class SquareQueue {
+
+	private Square[] _squares;
+	private int _max_degree;
+
+	// Each bucket is a doubly linked list of Square indices stored in arrays
+	private int[] _heads;
+	private int[] _next;
+	private int[] _prev;
+	private int[] _bucket; // Which bucket each Square is in (-1 if not in the queue)
+	private int _min = 0; // No bucket below this one has any Squares in it
+	private int _size = 0;
+
+	// Squares whose options have changed since they were put in their bucket
+	private int[] _changed;
+	private boolean[] _is_changed;
+	private int _num_changed = 0;
+
+	// IN:	List<Square>	-> the Squares to put in the queue
+	//		int				-> the dimensions of the puzzle
+	//
+	// Creates a queue holding all of the given Squares
+	public SquareQueue(List<Square> squares, int n) {
+		_squares = squares.toArray(new Square[squares.size()]);
+		_max_degree = n*n + 2*n;
+		_heads = new int[(n+1) * (_max_degree+1)];
+		_next = new int[_squares.length];
+		_prev = new int[_squares.length];
+		_bucket = new int[_squares.length];
+		_changed = new int[_squares.length];
+		_is_changed = new boolean[_squares.length];
+
+		for (int i = 0; i < _heads.length; i++)
+			_heads[i] = -1;
+		for (int i = 0; i < _squares.length; i++) {
+			_bucket[i] = -1;
+			_squares[i].setQueue(this, i);
+			add(_squares[i]);
+		}
+	}
+
+	// Returns whether or not there are any Squares left in the queue
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	// Puts a Square (back) in the queue
+	public void add(Square square) {
+		int index = square.getQueueIndex();
+		if (_bucket[index] >= 0) return;
+		link(index, bucket(square));
+		_size++;
+	}
+
+	// Removes and returns the most constricted Square (most constricting for ties)
+	public Square poll() {
+
+		// Move every Square whose options changed into its new bucket
+		for (int i = 0; i < _num_changed; i++) {
+			int index = _changed[i];
+			_is_changed[index] = false;
+			if (_bucket[index] >= 0) {
+				unlink(index);
+				link(index, bucket(_squares[index]));
+			}
+		}
+		_num_changed = 0;
+
+		while (_heads[_min] < 0)
+			_min++;
+		int index = _heads[_min];
+		unlink(index);
+		_bucket[index] = -1;
+		_size--;
+		return _squares[index];
+	}
+
+	// Called by a Square when its options go out of date
+	public void changed(int index) {
+		if (_is_changed[index] || _bucket[index] < 0) return;
+		_is_changed[index] = true;
+		_changed[_num_changed++] = index;
+	}
+
+	// Returns which bucket a Square belongs in
+	private int bucket(Square square) {
+		return square.domainSize() * (_max_degree+1) + (_max_degree - square.degree());
+	}
+
+	// Adds a Square to the front of a bucket
+	private void link(int index, int bucket) {
+		_bucket[index] = bucket;
+		_prev[index] = -1;
+		_next[index] = _heads[bucket];
+		if (_heads[bucket] >= 0)
+			_prev[_heads[bucket]] = index;
+		_heads[bucket] = index;
+		if (bucket < _min)
+			_min = bucket;
+	}
+
+	// Takes a Square out of its bucket
+	private void unlink(int index) {
+		if (_prev[index] >= 0)
+			_next[_prev[index]] = _next[index];
+		else
+			_heads[_bucket[index]] = _next[index];
+		if (_next[index] >= 0)
+			_prev[_next[index]] = _prev[index];
+	}
+
+}
@@ -0,0 +1,206 @@
+package qubic;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Benchmark times the parts of the engine that every search depends on, so a change to
+// QubicImpl or QubicSearch can be checked for whether it made things faster or slower. It
+// runs from the command line with nothing but the JDK: every measurement is warmed up
+// first (so the JIT has compiled it) and then repeated until it has run for at least
+// MEASURE_NANOS, and results are added into a field that is printed at the end so the JIT
+// cannot skip the work.
+//
+// The positions are mid-game positions from random games played from the seed (the same
+// seed always gives the same positions), stopped after 8 to 20 moves while nobody has won.
+// For winner(), generateMoves (the move generator), utility() and move(uf, d, d) at each
+// depth it prints the time per operation and the bytes allocated per operation (from the
+// JVM's per-thread allocation counter, if it has one). The searches also print how long
+// each search took on average and the positions searched per second.
+//
+// Usage: java qubic/Benchmark [positions] [seed] [max_depth] [utility file]
+//		positions		-> the number of positions. Defaults to 20
+//		seed			-> defaults to 560
+//		max_depth		-> searches are timed at depths 1 to max_depth. Defaults to 5
+//		utility file	-> a saved UtilityFunction to search with (see UtilityFunction.save).
+//						   Defaults to values trained with TRAINING_TRIALS trials from the seed
+
+public class Benchmark {
+
+	private static final long WARMUP_NANOS = 500_000_000L;
+	private static final long MEASURE_NANOS = 1_000_000_000L;
+	private static final int TRAINING_TRIALS = 10000;
+
+	// Where results go so the work that made them is not optimized away
+	private static double _sink;
+
+	// Positions searched by the searches being timed
+	private static long _nodes;
+
+	public static void main(String[] args) throws IOException {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 560;
+		int max_depth = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		UtilityFunction uf = args.length > 3
+				? UtilityFunction.load(Paths.get(args[3]))
+				: Trials.runTrials(TRAINING_TRIALS, TRAINING_TRIALS, TRAINING_TRIALS, 1, seed);
+
+		List<long[]> positions = new ArrayList<long[]>();
+		List<Qubic> games = new ArrayList<Qubic>();
+		randomPositions(count, seed, positions, games);
+		System.out.println(count + " positions from seed " + seed);
+		System.out.println();
+		System.out.println(String.format("%-16s %14s %14s %12s %14s", "benchmark", "ns/op", "bytes/op", "ms/search", "nodes/s"));
+
+		print("winner()", measure(() -> {
+			int total = 0;
+			for (Qubic game : games)
+				total += game.winner() == null ? 0 : 1;
+			return total;
+		}, games.size(), false));
+
+		List<QubicSearch> searches = new ArrayList<QubicSearch>();
+		for (long[] position : positions)
+			searches.add(new QubicSearch(position[0], position[1], uf, new LocalTranspositionTable(1)));
+		int[] moves = new int[64];
+		print("generateMoves", measure(() -> {
+			int total = 0;
+			for (QubicSearch search : searches)
+				total += search.generateMoves(moves);
+			return total;
+		}, searches.size(), false));
+		print("utility()", measure(() -> {
+			double total = 0;
+			for (QubicSearch search : searches)
+				total += search.utility();
+			return total;
+		}, searches.size(), false));
+
+		// One table is reused for every search, the same way QubicImpl reuses its table
+		TranspositionTable transposition_table = new LocalTranspositionTable();
+		for (int depth = 1; depth <= max_depth; depth++) {
+			int search_depth = depth;
+			print("move(uf, " + depth + ", " + depth + ")", measure(() -> {
+				int total = 0;
+				for (long[] position : positions) {
+					QubicSearch search = new QubicSearch(position[0], position[1], uf, transposition_table);
+					total += search.bestMove(search_depth, search_depth);
+					_nodes += search.getNodes();
+				}
+				return total;
+			}, positions.size(), true));
+		}
+		System.out.println();
+		System.out.println("(checksum " + _sink + ")");
+	}
+
+	// IN:	int				-> the number of positions to make
+	//		long			-> the seed for the random games
+	//		List<long[]>	-> where to put the X's and O's of each position
+	//		List<Qubic>		-> where to put each position as a Qubic
+	//
+	// Plays random moves from the start until the number of moves picked for the game has
+	// been played, and starts over with a new game whenever one ends before that
+	private static void randomPositions(int count, long seed, List<long[]> positions, List<Qubic> games) {
+		Random random = new Random(seed);
+		while (positions.size() < count) {
+			int moves = 8 + random.nextInt(13);
+			Qubic game = Qubic.newGame();
+			long x = 0;
+			long o = 0;
+			for (int i = 0; i < moves && game.winner() == null; i++) {
+				int square;
+				do {
+					square = random.nextInt(64);
+				} while (((x | o) & 1L << square) != 0);
+				game = game.move(square / 16, square / 4 % 4, square % 4);
+				if (i % 2 == 0)
+					x |= 1L << square;
+				else
+					o |= 1L << square;
+			}
+			if (game.winner() == null) {
+				positions.add(new long[] { x, o });
+				games.add(game);
+			}
+		}
+	}
+
+	// Something to time. Each run goes through every position once and returns a result
+	private interface Operation {
+		double run();
+	}
+
+	// What one benchmark measured (nodes is only used for searches)
+	private static class Result {
+
+		private double _nanos_per_op;
+		private double _bytes_per_op;
+		private long _runs;
+		private long _nodes = -1;
+		private long _total_nanos;
+
+	}
+
+	// IN:	Operation	-> what to time
+	//		int			-> the number of operations in each run (the number of positions)
+	//		boolean		-> true if the operation is a search that adds to _nodes
+	// OUT:	Result		-> the time and allocation of each operation
+	//
+	// Runs the operation for WARMUP_NANOS without timing it, and then for at least
+	// MEASURE_NANOS (and at least once) while timing it and counting the bytes allocated
+	private static Result measure(Operation operation, int ops_per_run, boolean search) {
+		for (long start = System.nanoTime(); System.nanoTime() - start < WARMUP_NANOS;)
+			_sink += operation.run();
+		_nodes = 0;
+
+		Result result = new Result();
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			_sink += operation.run();
+			result._runs++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < MEASURE_NANOS);
+		long allocated = allocatedBytes() - bytes;
+
+		long ops = result._runs * ops_per_run;
+		if (search)
+			result._nodes = _nodes;
+		result._total_nanos = elapsed;
+		result._nanos_per_op = (double) elapsed / ops;
+		result._bytes_per_op = bytes < 0 ? -1 : (double) allocated / ops;
+		return result;
+	}
+
+	// Prints one line of the table. Searches also print the average time of each search
+	// and the positions searched per second (nodes only counts the measured runs)
+	private static void print(String name, Result result) {
+		String bytes = result._bytes_per_op < 0 ? "n/a" : String.format("%.1f", result._bytes_per_op);
+		String millis = "";
+		String nodes_per_second = "";
+		if (result._nodes >= 0) {
+			millis = String.format("%.3f", result._nanos_per_op / 1e6);
+			nodes_per_second = String.format("%.0f", result._nodes * 1e9 / result._total_nanos);
+		}
+		System.out.println(String.format("%-16s %14.1f %14s %12s %14s", name, result._nanos_per_op, bytes, millis, nodes_per_second));
+	}
+
+	// Returns how many bytes the current thread has allocated so far, or -1 if the JVM does
+	// not count them
+	@SuppressWarnings("deprecation")
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		com.sun.management.ThreadMXBean sun_threads = (com.sun.management.ThreadMXBean) threads;
+		if (!sun_threads.isThreadAllocatedMemorySupported() || !sun_threads.isThreadAllocatedMemoryEnabled())
+			return -1;
+		return sun_threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+}
@@ -0,0 +1,87 @@
+package qubic;
+
+// LocalTranspositionTable is a TranspositionTable for one search at a time. It has a fixed
+// number of slots that are allocated once, and each position can only go in the slot
+// picked by its hash. Every entry keeps the full hash (to tell positions apart) along with
+// what it stores.
+//
+// When two positions want the same slot, the new one replaces the old one if the old one
+// is from an earlier search or was not searched as deep. Entries from earlier searches
+// are never used for their values (the UtilityFunction could have changed), but their
+// best moves are still used for move ordering until they are replaced.
+
+public class LocalTranspositionTable extends TranspositionTable {
+
+	// Number of slots used if none is given (2^18 slots, about 6 MB)
+	public static final int DEFAULT_BITS = 18;
+
+	private int _mask;
+	private long[] _keys;
+	private double[] _values;
+	private byte[] _depths;
+	private byte[] _bounds;
+	private byte[] _moves;
+	private int[] _searches;
+
+	// Which search is using the table (stored with each entry to tell old entries apart)
+	private int _search = 0;
+
+	public LocalTranspositionTable() {
+		this(DEFAULT_BITS);
+	}
+
+	// Creates a table with 2^bits slots
+	public LocalTranspositionTable(int bits) {
+		int size = 1 << bits;
+		_mask = size - 1;
+		_keys = new long[size];
+		_values = new double[size];
+		_depths = new byte[size];
+		_bounds = new byte[size];
+		_moves = new byte[size];
+		_searches = new int[size];
+		for (int i = 0; i < size; i++)
+			_moves[i] = -1;
+	}
+
+	// Starts a new search. Entries from before this are only used for their best moves
+	@Override
+	public void newSearch() {
+		_search++;
+	}
+
+	// See TranspositionTable. Only positions stored during the current search are found
+	@Override
+	public boolean probe(long hash, Entry entry) {
+		int slot = (int) hash & _mask;
+		if (_keys[slot] != hash || _searches[slot] != _search || _depths[slot] == 0)
+			return false;
+		entry.set(_depths[slot], _bounds[slot], _values[slot], _moves[slot]);
+		return true;
+	}
+
+	// See TranspositionTable. Best moves from any search are returned
+	@Override
+	public int bestMove(long hash) {
+		int slot = (int) hash & _mask;
+		return _keys[slot] == hash ? _moves[slot] : -1;
+	}
+
+	// See TranspositionTable. Nothing is stored if the slot holds a different position from
+	// this search that was searched deeper
+	@Override
+	public void store(long hash, int depth, byte bound, double value, int move) {
+		int slot = (int) hash & _mask;
+		if (_searches[slot] == _search && _keys[slot] != hash && _depths[slot] > depth)
+			return;
+		if (move < 0 && _keys[slot] == hash)
+			move = _moves[slot];
+		_keys[slot] = hash;
+		_values[slot] = value;
+		_depths[slot] = (byte) depth;
+		_bounds[slot] = bound;
+		_moves[slot] = (byte) move;
+		_searches[slot] = _search;
+	}
+
+}
@@ -0,0 +1,233 @@
+package qubic;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// An OpeningBook holds the best move for every position in the first few plies of a game,
+// found ahead of time with a search, so the moves that take the longest to search (when
+// the board is nearly empty) can be played right away. Only the canonical form of each
+// position is kept (see Symmetry, using the symmetries that keep SquareTypes), so the book
+// is about 96 times smaller than it would be otherwise, and a position is looked up by
+// turning it into its canonical form and turning the book move back.
+//
+// The book is a binary file made of a header (MAGIC, VERSION, the number of plies and the
+// number of bits in the table size) followed by a hash table with 2^bits slots. Each slot
+// holds the X's, the O's and the move (-1 for an empty slot), and a position goes in the
+// first empty slot at or after the one picked by its hash (see slot, which only depends on
+// the position, so a book stays readable whatever TranspositionTable's keys are). The
+// table is at most half full, so a lookup only reads a few slots. The file is memory mapped
+// when it is loaded, so it is never read into the heap and any number of threads can look
+// up positions at once.
+//
+// Usage: java qubic/OpeningBook <output file> [plies] [min_depth] [max_depth] [trials]
+//		plies		-> positions with fewer pieces than this are in the book. Defaults to 4
+//		min_depth	-> the depth to search each position to (see Qubic.move). Defaults to 4
+//		max_depth	-> defaults to 6
+//		trials		-> how many trials to train the UtilityFunction with (see
+//					   Trials.runTrials). Defaults to 10000
+
+public class OpeningBook {
+
+	public static final int MAGIC = 0x51424F4B;
+	public static final int VERSION = 2;
+
+	private static final int HEADER_BYTES = 16;
+	private static final int SLOT_BYTES = 17;
+
+	private final ByteBuffer _table;
+	private final int _plies;
+	private final int _mask;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: java qubic/OpeningBook <output file> [plies] [min_depth] [max_depth] [trials]");
+			return;
+		}
+		int plies = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int min_depth = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		int max_depth = args.length > 3 ? Integer.parseInt(args[3]) : 6;
+		int trials = args.length > 4 ? Integer.parseInt(args[4]) : 10000;
+
+		UtilityFunction uf = Trials.runTrials(trials, trials, trials);
+		long start = System.currentTimeMillis();
+		int count = generate(Paths.get(args[0]), uf, plies, min_depth, max_depth);
+		System.err.println("Wrote " + count + " positions in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	private OpeningBook(ByteBuffer table, int plies, int bits) {
+		_table = table;
+		_plies = plies;
+		_mask = (1 << bits) - 1;
+	}
+
+	// Loads the book in the given file by memory mapping it. Throws an IOException if the
+	// file cannot be read or is not an OpeningBook of this VERSION
+	public static OpeningBook load(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (table.capacity() < HEADER_BYTES || table.getInt(0) != MAGIC)
+				throw new IOException(path + " is not an opening book");
+			if (table.getInt(4) != VERSION)
+				throw new IOException(path + " is version " + table.getInt(4) + " (expected " + VERSION + ")");
+			int plies = table.getInt(8);
+			int bits = table.getInt(12);
+			if (bits < 0 || bits > 30 || table.capacity() != HEADER_BYTES + ((long) SLOT_BYTES << bits))
+				throw new IOException(path + " is the wrong size");
+			return new OpeningBook(table, plies, bits);
+		}
+	}
+
+	// Returns the number of plies the book covers (positions with fewer pieces are in it)
+	public int getPlies() {
+		return _plies;
+	}
+
+	// IN:	long	-> the position of the X's
+	//		long	-> the position of the O's
+	// OUT:	int		-> the square of the book move, or -1 if the position is not in the book
+	public int move(long x, long o) {
+		if (Long.bitCount(x | o) >= _plies)
+			return -1;
+		int symmetry = Symmetry.canonical(x, o, true);
+		int move = find(Symmetry.apply(symmetry, x), Symmetry.apply(symmetry, o));
+		return move < 0 ? -1 : Symmetry.apply(Symmetry.inverse(symmetry), move);
+	}
+
+	// IN:	Path			-> the file to write the book to
+	//		UtilityFunction	-> what to search each position with
+	//		int				-> positions with fewer pieces than this are put in the book
+	//		int				-> the depth to search to for positions that are static
+	//		int				-> the depth to search to for all other positions
+	// OUT:	int				-> the number of positions in the book
+	//
+	// Goes through the positions one ply at a time, starting from the empty board. Every
+	// move from each canonical position of a ply is made, and the canonical forms of the
+	// results (the ones that are not over) make up the next ply. Each position is then
+	// searched with the given depths and its best move is put in the table. The book is
+	// written to a temporary file first and then moved over the old file, so the old file
+	// is never left half written if writing fails
+	public static int generate(Path path, UtilityFunction uf, int plies, int min_depth, int max_depth) throws IOException {
+		List<long[]> positions = new ArrayList<long[]>();
+		List<long[]> ply = new ArrayList<long[]>();
+		ply.add(new long[] { 0, 0 });
+		for (int pieces = 0; pieces < plies && !ply.isEmpty(); pieces++) {
+			positions.addAll(ply);
+			if (pieces + 1 == plies)
+				break;
+			Set<Position> next = new HashSet<Position>();
+			for (long[] position : ply)
+				for (long empty = ~(position[0] | position[1]); empty != 0; empty &= empty - 1) {
+					long move = Long.lowestOneBit(empty);
+					long x = pieces % 2 == 0 ? position[0] | move : position[0];
+					long o = pieces % 2 == 0 ? position[1] : position[1] | move;
+					if (!won(x) && !won(o) && ~(x | o) != 0) {
+						int symmetry = Symmetry.canonical(x, o, true);
+						next.add(new Position(Symmetry.apply(symmetry, x), Symmetry.apply(symmetry, o)));
+					}
+				}
+			ply = new ArrayList<long[]>();
+			for (Position position : next)
+				ply.add(new long[] { position._x, position._o });
+		}
+
+		int bits = 1;
+		while (1 << bits < 2 * positions.size())
+			bits++;
+		ByteBuffer table = ByteBuffer.allocate(HEADER_BYTES + (SLOT_BYTES << bits));
+		table.putInt(0, MAGIC);
+		table.putInt(4, VERSION);
+		table.putInt(8, plies);
+		table.putInt(12, bits);
+		for (int slot = 0; slot < 1 << bits; slot++)
+			table.put(HEADER_BYTES + SLOT_BYTES * slot + 16, (byte) -1);
+
+		OpeningBook book = new OpeningBook(table, plies, bits);
+		TranspositionTable transposition_table = new LocalTranspositionTable();
+		for (long[] position : positions) {
+			int move = new QubicSearch(position[0], position[1], uf, transposition_table).bestMove(min_depth, max_depth);
+			book.put(position[0], position[1], move);
+		}
+
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.write(temporary, table.array());
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return positions.size();
+	}
+
+	// Returns the move stored for the canonical position, or -1 if it is not there
+	private int find(long x, long o) {
+		for (int slot = slot(x, o);; slot = slot + 1 & _mask) {
+			int index = HEADER_BYTES + SLOT_BYTES * slot;
+			int move = _table.get(index + 16);
+			if (move < 0)
+				return -1;
+			if (_table.getLong(index) == x && _table.getLong(index + 8) == o)
+				return move;
+		}
+	}
+
+	// Stores the move for the canonical position in the first empty slot from its hash
+	private void put(long x, long o, int move) {
+		int slot = slot(x, o);
+		while (_table.get(HEADER_BYTES + SLOT_BYTES * slot + 16) >= 0)
+			slot = slot + 1 & _mask;
+		int index = HEADER_BYTES + SLOT_BYTES * slot;
+		_table.putLong(index, x);
+		_table.putLong(index + 8, o);
+		_table.put(index + 16, (byte) move);
+	}
+
+	// Returns the slot a position's probe starts at. This is part of the file format, so it
+	// is a fixed mix of the bits of the position (two multiplications and shifts) instead
+	// of TranspositionTable.hash, whose random keys could change without VERSION changing
+	private int slot(long x, long o) {
+		long hash = x * 0x9E3779B97F4A7C15L + o * 0xC2B2AE3D27D4EB4FL;
+		hash ^= hash >>> 29;
+		hash *= 0xBF58476D1CE4E5B9L;
+		hash ^= hash >>> 32;
+		return (int) hash & _mask;
+	}
+
+	// Returns true if the pieces fill a win pattern
+	private static boolean won(long pieces) {
+		for (long win_pattern : QubicImpl.WIN_PATTERNS)
+			if ((pieces & win_pattern) == win_pattern)
+				return true;
+		return false;
+	}
+
+	// A Position is a board used as a key while the positions of each ply are collected
+	private static class Position {
+
+		private final long _x;
+		private final long _o;
+
+		private Position(long x, long o) {
+			_x = x;
+			_o = o;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Position && ((Position) other)._x == _x && ((Position) other)._o == _o;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(_x * 31 + _o);
+		}
+
+	}
+
+}
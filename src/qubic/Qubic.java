@@ -1,8 +1,13 @@
 package qubic;
 
+import java.util.Random;
+
 // Qubic is an interface for a 4x4x4 TicTacToe game. It can initiate a board, determine the
 // turn, determine the winner, move, manage a utility function, and print according to the
 // descriptions below
+//
+// Every move method throws an IllegalArgumentException if the game is already over (winner
+// is not null), the same as move(plane, line, index) does for a square that is taken
 
 public interface Qubic {
 	
@@ -27,18 +32,61 @@ public interface Qubic {
 	// Returns the Qubic that results from exploiting the utility_function or exploring
 	// if the depth is 0. In the case of a tie, a random best move is returned
 	public Qubic move(UtilityFunction utility_function, int depth);
+
+	// Same as move(utility_function, depth), but the random move (or the random best move)
+	// is picked with the given Random, so a game can be played again from the same seed
+	public Qubic move(UtilityFunction utility_function, int depth, Random random);
 	
 	// Returns the Qubic that results from exploiting the utility_function or exploring
 	// if the max_depth is 0. It will search to at least the min_depth and continue searching
 	// until the max_depth if the position is not inactive (a win case is set up). In the case
 	// of a tie, a random best move is returned
 	public Qubic move(UtilityFunction utility_function, int min_depth, int max_depth);
+
+	// Same as move(utility_function, min_depth, max_depth), but stores and looks up the
+	// positions it searches in the given TranspositionTable. A SharedTranspositionTable can
+	// be given to any number of games that are searching at the same time, as long as they
+	// all use the same utility_function
+	public Qubic move(UtilityFunction utility_function, int min_depth, int max_depth, TranspositionTable transposition_table);
+
+	// Returns the Qubic that results from playing the move in the opening_book if the
+	// position is in it (see OpeningBook), and otherwise the same as
+	// move(utility_function, min_depth, max_depth)
+	public Qubic move(OpeningBook opening_book, UtilityFunction utility_function, int min_depth, int max_depth);
+
+	// Returns the Qubic that results from exploiting the utility_function, searching deeper
+	// and deeper until the given number of milliseconds have passed or a win or loss has been
+	// found. The move from the deepest search that finished is returned. In the case of a
+	// tie, a random best move is returned
+	public Qubic moveWithin(UtilityFunction utility_function, long milliseconds);
+
+	// Same as move(utility_function, min_depth, max_depth), but searches on every available
+	// processor at once
+	public Qubic parallelMove(UtilityFunction utility_function, int min_depth, int max_depth);
+
+	// Same as move(utility_function, min_depth, max_depth), but searches on the given number
+	// of threads at once (at most one for each available processor). Each thread searches the
+	// whole tree, and they share what they find through a SharedTranspositionTable so each
+	// one skips what the others already searched
+	public Qubic parallelMove(UtilityFunction utility_function, int min_depth, int max_depth, int threads);
+
+	// Same as moveWithin(utility_function, milliseconds), but searches on every available
+	// processor at once
+	public Qubic parallelMoveWithin(UtilityFunction utility_function, long milliseconds);
+
+	// Same as moveWithin(utility_function, milliseconds), but searches on the given number of
+	// threads at once the same way parallelMove does
+	public Qubic parallelMoveWithin(UtilityFunction utility_function, long milliseconds, int threads);
 	
 	// Updates the given utility_function using the given learning rate. It will only
 	// update if the game is over and not drawn. The value calculated for each SquareType
 	// based on the finished Qubic is equal to (percent of wining pattern in the
 	// SquareType - percent of losing pattern in the SquareType). The new value is a linear
-	// combination of this value and the old value, using the learning rate as the factor
+	// combination of this value and the old value, using the learning rate as the factor.
+	// If the utility_function uses open win patterns (see UtilityFunction.usesLines), the
+	// value of open win patterns with each number of pieces is updated the same way, using
+	// (the winner's share - the loser's share of all the open win patterns with that many
+	// pieces that either player had in any position of the game)
 	public void updateUtilityFunction(UtilityFunction utility_function, double learning_rate);
 
 	// Prints the Qubic with the planes "unstacked" where plane n prints before plane n-1. 
@@ -1,11 +1,7 @@
 package qubic;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 // QubicImpl implements the Qubic interface (see Qubic) using a long to represent the
 // position of all the X's (1 for an X, 0 for not an X) and another long to represent the
@@ -16,27 +12,30 @@ public class QubicImpl implements Qubic {
 
 	private long _x;
 	private long _o;
+	private long _hash; // Zobrist hash of _x and _o (see TranspositionTable)
 
-	private static Map<QubicImpl, Double> _transposition_table;
-	
-	// Comparator used to order moves without evaluating the two moves. It simply
-	// accesses their values from the transposition table. If the QubicImpl is not
-	// in the table, it is put later in the move ordering (this does not happen often
-	// because the minimax function uses iterative deepening)
-	private static final Comparator<QubicImpl> MOVE_ORDER = new Comparator<QubicImpl>() {
-		public int compare(QubicImpl q1, QubicImpl q2) {
-			Double q1_value = _transposition_table.get(q1);
-			Double q2_value = _transposition_table.get(q2);
-			if (q2_value == null)
-				return 1;
-			if (q1_value == null)
-				return -1;
-			return q1_value.compareTo(q2_value);
-		}
-	};
+	// Number of pieces each player has in each win pattern, packed 3 bits per pattern and
+	// LINES_PER_WORD patterns per long. The first WORDS longs are X's and the rest are O's
+	private long[] _lines;
+
+	private Integer _winner;
+
+	// Number of open win patterns (where a player has pieces and the other player has none)
+	// each player has with each number of pieces (the index), and the same numbers added up
+	// over every position of the game so far. X's are first and O's are after OPEN_COUNTS
+	private int[] _open;
+	private int[] _open_totals;
+	private static final int OPEN_COUNTS = 5;
+
+	// Each thread has its own table that it reuses for every search, so games on different
+	// threads can search at the same time
+	private static final ThreadLocal<TranspositionTable> _transposition_tables = ThreadLocal.withInitial(LocalTranspositionTable::new);
+
+	// Values at or beyond this are wins (1000 + the depth left when the game ended)
+	static final double WIN_THRESHOLD = 500;
 
 	// The long representations of the 74 different win cases
-	private static final long[] WIN_PATTERNS = new long[] {
+	static final long[] WIN_PATTERNS = new long[] {
 			0b0000000000000000000000000000000000000000000000000000000000001111L,
 			0b0000000000000000000000000000000000000000000000000000000011110000L,
 			0b0000000000000000000000000000000000000000000000000000111100000000L,
@@ -126,40 +125,91 @@ public class QubicImpl implements Qubic {
 
 			0b0000000000000001000000000010000000000100000000001000000000000000L };
 
+	private static final int LINES_PER_WORD = 21;
+	private static final int WORDS = (WIN_PATTERNS.length + LINES_PER_WORD - 1) / LINES_PER_WORD;
+
+	// The indices of the win patterns that go through each square (4 or 7 of them)
+	static final int[][] SQUARE_LINES = new int[64][];
+	static {
+		for (int square = 0; square < 64; square++) {
+			int count = 0;
+			for (long win_pattern : WIN_PATTERNS)
+				if ((win_pattern & 1L << square) != 0)
+					count++;
+			SQUARE_LINES[square] = new int[count];
+			count = 0;
+			for (int line = 0; line < WIN_PATTERNS.length; line++)
+				if ((WIN_PATTERNS[line] & 1L << square) != 0)
+					SQUARE_LINES[square][count++] = line;
+		}
+	}
+
 	// Creates a QubicImpl in starting position
 	public QubicImpl() {
 		_x = 0;
 		_o = 0;
+		_hash = 0;
+		_lines = new long[2 * WORDS];
+		_winner = null;
+		_open = new int[2 * OPEN_COUNTS];
+		_open_totals = new int[2 * OPEN_COUNTS];
 	}
 
 	// Creates a QubicImpl based that is the result of the previous QubicImpl after the given
-	// move has been taken
+	// move has been taken. Only the win patterns through the square that was taken are
+	// updated (along with the open win pattern counts), which is also the only place a new
+	// win can be
 	private QubicImpl(QubicImpl previous, long move) {
 		_x = previous._x;
 		_o = previous._o;
+		_lines = previous._lines.clone();
+		_open = previous._open.clone();
+		_winner = null;
 
-		if (xTurn())
+		boolean x_turn = xTurn();
+		int square = Long.numberOfTrailingZeros(move);
+		_hash = previous._hash ^ TranspositionTable.key(x_turn, square);
+		if (x_turn)
 			_x |= move;
 		else
 			_o |= move;
+
+		int own = x_turn ? 0 : WORDS;
+		int other = x_turn ? WORDS : 0;
+		int own_open = x_turn ? 0 : OPEN_COUNTS;
+		int other_open = x_turn ? OPEN_COUNTS : 0;
+		for (int line : SQUARE_LINES[square]) {
+			_lines[own + line / LINES_PER_WORD] += 1L << 3 * (line % LINES_PER_WORD);
+			int own_count = count(own, line);
+			int other_count = count(other, line);
+			if (other_count != 0) {
+				if (own_count == 1)
+					_open[other_open + other_count]--;
+			} else {
+				_open[own_open + own_count - 1]--;
+				_open[own_open + own_count]++;
+			}
+			if (own_count == 4)
+				_winner = x_turn ? 1 : -1;
+		}
+		if (_winner == null && ~(_x | _o) == 0)
+			_winner = 0;
+
+		_open_totals = previous._open_totals.clone();
+		for (int i = 0; i < _open.length; i++)
+			_open_totals[i] += _open[i];
 	}
 
 	// See Qubic
 	@Override
 	public boolean xTurn() {
-		return numOnes(_x|_o) % 2 == 0;
+		return Long.bitCount(_x|_o) % 2 == 0;
 	}
 
 	// See Qubic
 	@Override
 	public Integer winner() {
-		for (long win_pattern : WIN_PATTERNS) {
-			if ((_x & win_pattern) == win_pattern)
-				return 1;
-			if ((_o & win_pattern) == win_pattern)
-				return -1;
-		}
-		return (~(_x | _o) == 0) ? 0 : null;
+		return _winner;
 	}
 
 	// See Qubic
@@ -179,40 +229,92 @@ public class QubicImpl implements Qubic {
 		return move(utility_function, depth, depth);
 	}
 
+	// See Qubic
+	@Override
+	public Qubic move(UtilityFunction utility_function, int depth, Random random) {
+		if (winner() != null)
+			throw new IllegalArgumentException();
+		if (depth <= 0)
+			return randomMove(random);
+		QubicSearch search = new QubicSearch(_x, _o, utility_function, _transposition_tables.get());
+		search.setRandom(random);
+		return new QubicImpl(this, 1L << search.bestMove(depth, depth));
+	}
+
 	// See Qubic
 	@Override
 	public Qubic move(UtilityFunction utility_function, int min_depth, int max_depth) {
-		QubicImpl overall_best = null;
-		List<QubicImpl> next_moves = nextMoves();
+		return move(utility_function, min_depth, max_depth, _transposition_tables.get());
+	}
+
+	// See Qubic
+	@Override
+	public Qubic move(UtilityFunction utility_function, int min_depth, int max_depth, TranspositionTable transposition_table) {
+		if (winner() != null)
+			throw new IllegalArgumentException();
 
-		// Random move
 		if (max_depth <= 0)
-			return next_moves.get(0);
-
-		_transposition_table = new HashMap<QubicImpl, Double>();
-		
-		// Uses iterative deepening to calculate the values of each move starting from a
-		// depth of 1 up to a depth of max_depth. Moves and values are saved in the transposition
-		// table to help with move ordering for the next iteration. The alphabeta method also
-		// contributes to the transposition table
-		for (int depth = 1; depth <= max_depth; depth++) {
-			QubicImpl best = null;
-			double best_eval = 0;
-			Collections.sort(next_moves, MOVE_ORDER);
-			for (QubicImpl move : next_moves) {
-				double move_eval = move.alphabeta(utility_function, depth - 1, max_depth-min_depth, -1000 - max_depth, 1000 + max_depth);
-				_transposition_table.put(move, move_eval);
-				if (best == null || xTurn() && move_eval > best_eval || !xTurn() && move_eval < best_eval) {
-					best = move;
-					best_eval = move_eval;
-				}
-			}
-			overall_best = best;
-		}
+			return randomMove(ThreadLocalRandom.current());
 
-		return overall_best;
+		// The search is done on a single mutable board (see QubicSearch), and only the
+		// QubicImpl for the chosen move is created
+		QubicSearch search = new QubicSearch(_x, _o, utility_function, transposition_table);
+		return new QubicImpl(this, 1L << search.bestMove(min_depth, max_depth));
+	}
+
+	// See Qubic
+	@Override
+	public Qubic move(OpeningBook opening_book, UtilityFunction utility_function, int min_depth, int max_depth) {
+		if (winner() != null)
+			throw new IllegalArgumentException();
+		int book_move = max_depth > 0 ? opening_book.move(_x, _o) : -1;
+		if (book_move >= 0)
+			return new QubicImpl(this, 1L << book_move);
+		return move(utility_function, min_depth, max_depth);
 	}
 
+	// See Qubic
+	@Override
+	public Qubic moveWithin(UtilityFunction utility_function, long milliseconds) {
+		if (winner() != null)
+			throw new IllegalArgumentException();
+		QubicSearch search = new QubicSearch(_x, _o, utility_function, _transposition_tables.get());
+		return new QubicImpl(this, 1L << search.bestMoveWithin(milliseconds));
+	}
+
+	// See Qubic
+	@Override
+	public Qubic parallelMove(UtilityFunction utility_function, int min_depth, int max_depth) {
+		return parallelMove(utility_function, min_depth, max_depth, Runtime.getRuntime().availableProcessors());
+	}
+
+	// See Qubic
+	@Override
+	public Qubic parallelMove(UtilityFunction utility_function, int min_depth, int max_depth, int threads) {
+		if (winner() != null)
+			throw new IllegalArgumentException();
+		if (max_depth <= 0 || threads <= 1)
+			return move(utility_function, min_depth, max_depth);
+		return new QubicImpl(this, 1L << QubicSearch.parallelBestMove(_x, _o, utility_function, min_depth, max_depth, threads));
+	}
+
+	// See Qubic
+	@Override
+	public Qubic parallelMoveWithin(UtilityFunction utility_function, long milliseconds) {
+		return parallelMoveWithin(utility_function, milliseconds, Runtime.getRuntime().availableProcessors());
+	}
+
+	// See Qubic
+	@Override
+	public Qubic parallelMoveWithin(UtilityFunction utility_function, long milliseconds, int threads) {
+		if (winner() != null)
+			throw new IllegalArgumentException();
+		if (threads <= 1)
+			return moveWithin(utility_function, milliseconds);
+		return new QubicImpl(this, 1L << QubicSearch.parallelBestMoveWithin(_x, _o, utility_function, milliseconds, threads));
+	}
+
+
 	// See Qubic
 	@Override
 	public void updateUtilityFunction(UtilityFunction utility_function, double learning_rate) {
@@ -223,32 +325,35 @@ public class QubicImpl implements Qubic {
 		// Counting how many "winners" and "losers" each SquareType has
 		long winner_pattern = winner > 0 ? _x : _o;
 		long loser_pattern = winner < 0 ? _x : _o;
-		double winner_total = 0;
-		double loser_total = 0;
-		Map<SquareType, Integer> winner_spread = new HashMap<SquareType, Integer>();
-		Map<SquareType, Integer> loser_spread = new HashMap<SquareType, Integer>();
-
-		for (SquareType st : SquareType.values()) {
-			winner_spread.put(st, 0);
-			loser_spread.put(st, 0);
-		}
-		for (long i = 1L; i != 0; i <<= 1) {
-			if ((winner_pattern & i) == i) {
-				winner_total++;
-				winner_spread.put(SquareType.valueOf(i), winner_spread.get(SquareType.valueOf(i)) + 1);
-			}
-			if ((loser_pattern & i) == i) {
-				loser_total++;
-				loser_spread.put(SquareType.valueOf(i), loser_spread.get(SquareType.valueOf(i)) + 1);
-			}
-		}
+		double winner_total = Long.bitCount(winner_pattern);
+		double loser_total = Long.bitCount(loser_pattern);
+		int[] winner_spread = new int[SquareType.values().length];
+		int[] loser_spread = new int[SquareType.values().length];
+		for (long pieces = winner_pattern; pieces != 0; pieces &= pieces - 1)
+			winner_spread[SquareType.valueOf(pieces).ordinal()]++;
+		for (long pieces = loser_pattern; pieces != 0; pieces &= pieces - 1)
+			loser_spread[SquareType.valueOf(pieces).ordinal()]++;
 
 		// Use the counts to calculate a net value for each SquareType, then update
 		// the value of that SquareType using the reinforced learning formula
 		for (SquareType st : SquareType.values()) {
-			double net_value = winner_spread.get(st) / winner_total - loser_spread.get(st) / loser_total;
+			double net_value = winner_spread[st.ordinal()] / winner_total - loser_spread[st.ordinal()] / loser_total;
 			utility_function.setValue(st, (1 - learning_rate) * utility_function.getValue(st) + learning_rate * net_value);
 		}
+
+		// Use how many open win patterns with each number of pieces the "winner" and
+		// "loser" had over the whole game to calculate a net value for each number of
+		// pieces (the winner's share minus the loser's share), then update it the same way
+		if (!utility_function.usesLines())
+			return;
+		int winner_open = winner > 0 ? 0 : OPEN_COUNTS;
+		int loser_open = winner < 0 ? 0 : OPEN_COUNTS;
+		for (int pieces = 1; pieces <= UtilityFunction.MAX_OPEN_PIECES; pieces++) {
+			int winner_lines = _open_totals[winner_open + pieces];
+			int loser_lines = _open_totals[loser_open + pieces];
+			double net_value = (winner_lines - loser_lines) / Math.max(1.0, winner_lines + loser_lines);
+			utility_function.setLineValue(pieces, (1 - learning_rate) * utility_function.getLineValue(pieces) + learning_rate * net_value);
+		}
 	}
 
 	// See Qubic
@@ -288,100 +393,30 @@ public class QubicImpl implements Qubic {
 		System.out.println();
 	}
 	
-	// Recursive minimax algorithm with alpha-beta pruning. Move ordering and quiescence
-	// search are also included
-	private double alphabeta(UtilityFunction utility_function, int depth, int static_buffer, double alpha, double beta) {
-		List<QubicImpl> next_moves = nextMoves();
-		
-		// If the game is over return the appropriate value
-		if (next_moves.size() == 0)
-			return (1000 + depth) * winner();
-		
-		// If the depth has been reached (or it is static and in the static buffer region)
-		// return the evaluation at its current position
-		if (depth <= 0 || depth <= static_buffer && isStatic())
-			return utility(utility_function);
-
-		// Order moves by what was found in previous iterations and stored in the transposition
-		// table
-		Collections.sort(next_moves, MOVE_ORDER);
-
-		// Standard alphabeta algorithm (with storing values in transposition table)
-		if (xTurn()) {
-			double max = -1000 - depth;
-			for (QubicImpl move : next_moves) {
-				double evaluation = move.alphabeta(utility_function, depth - 1, static_buffer, alpha, beta);
-				_transposition_table.put(move, evaluation);
-				if (evaluation > max)
-					max = evaluation;
-				if (evaluation > alpha)
-					alpha = evaluation;
-				if (alpha >= beta)
-					return alpha;
-			}
-			return max;
-		} else {
-			double min = 1000 + depth;
-			for (QubicImpl move : next_moves) {
-				double evaluation = move.alphabeta(utility_function, depth - 1, static_buffer, alpha, beta);
-				_transposition_table.put(move, evaluation);
-				if (evaluation < min)
-					min = evaluation;
-				if (evaluation < beta)
-					beta = evaluation;
-				if (alpha >= beta)
-					return beta;
-			}
-			return min;
-		}
+	// Returns the QubicImpl after a move on an empty square picked with the given Random
+	private Qubic randomMove(Random random) {
+		long empty = ~(_x | _o);
+		for (int skip = random.nextInt(Long.bitCount(empty)); skip > 0; skip--)
+			empty &= empty - 1;
+		return new QubicImpl(this, Long.lowestOneBit(empty));
 	}
 
-	// Returns a list of all the possible QubicImpls that are one ply ahead of the
-	// current position
-	private List<QubicImpl> nextMoves() {
-		List<QubicImpl> next_moves = new ArrayList<QubicImpl>();
-		if (winner() == null)
-			for (long move = 1L; move != 0; move <<= 1)
-				if (((_x | _o) & move) == 0)
-					next_moves.add(new QubicImpl(this, move));
-		Collections.shuffle(next_moves);
-		return next_moves;
-	}
-
-	// Returns the utility of the current position according to the utility_function
-	private double utility(UtilityFunction utility_function) {
-		double total = 0;
-		for (long i = 1L; i != 0; i <<= 1) {
-			if ((_x & i) != 0)
-				total += utility_function.getValue(SquareType.valueOf(i));
-			else if ((_o & i) != 0)
-				total -= utility_function.getValue(SquareType.valueOf(i));
-		}
-		return total;
-	}
-	
-	// Determines if the current position is static. A static position is defined as
-	// any position in which the moving player is not being forced to go to a particular
-	// square (in other words, there is no active three-in-a-row for the opponent)
-	private boolean isStatic() {
-		boolean x_turn = xTurn();
-		long defender = x_turn ? _x : _o;
-		long attacker = x_turn ? _o : _x;
-		for (long win_pattern : WIN_PATTERNS)
-			if (numOnes(attacker & win_pattern) == 3 && (defender & win_pattern) == 0)
-				return false;
-		return true;
-	}
-	
-	// Counts the number of ones in a long
-	private static int numOnes(long l) {
-		return l == 0 ? 0 : numOnes(l & (l-1)) + 1;
+	// Returns how many pieces a player has in a win pattern (player is 0 for X or WORDS for O)
+	private int count(int player, int line) {
+		return (int) (_lines[player + line / LINES_PER_WORD] >>> 3 * (line % LINES_PER_WORD)) & 7;
 	}
 
 	@Override
 	public boolean equals(Object other) {
+		if (!(other instanceof QubicImpl))
+			return false;
 		QubicImpl other_qubic = (QubicImpl) other;
 		return _x == other_qubic._x && _o == other_qubic._o;
 	}
 
+	@Override
+	public int hashCode() {
+		return (int) (_hash ^ (_hash >>> 32));
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,666 @@
+package qubic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// QubicSearch is the search behind QubicImpl's move(UtilityFunction, int, int). Instead of
+// creating a QubicImpl for every position it looks at, it keeps one board that it makes
+// moves on and takes them back from. The counts of pieces in each win pattern, the counts
+// of open win patterns and the hash are updated along with the board, only for the patterns
+// through the square that changed. Moves are generated straight from the empty squares of the board
+// into buffers that are allocated once for each ply, so the search itself does not
+// allocate anything.
+//
+// Everything a search changes is kept in its own QubicSearch, so searches for different
+// games can run at the same time on different threads as long as they do not use the same
+// LocalTranspositionTable (a SharedTranspositionTable can be used by all of them).
+//
+// Values are from X's point of view (positive is good for X) like in QubicImpl: a win is
+// worth 1000 plus the depth that was left when the game ended, and other positions are
+// worth the utility of X's squares and open win patterns minus the utility of O's (see
+// UtilityFunction).
+
+public class QubicSearch {
+
+	private long _x;
+	private long _o;
+	private long _hash;
+	private boolean _x_turn;
+
+	// Number of pieces each player has in each win pattern
+	private byte[] _x_counts;
+	private byte[] _o_counts;
+
+	// Number of win patterns where the player has 0 to 4 pieces (the index) and the other
+	// player has none. The ones with 3 pieces are threats
+	private int[] _x_open = new int[5];
+	private int[] _o_open = new int[5];
+
+	// 1 if X has won, -1 if O has won, 0 otherwise
+	private int _winner;
+
+	private UtilityFunction _utility_function;
+	private TranspositionTable _transposition_table;
+	private TranspositionTable.Entry _entry = new TranspositionTable.Entry();
+	private int _static_buffer;
+
+	// Used to put the moves in random order (ThreadLocalRandom if it is null)
+	private Random _random;
+
+	// The depth iterative deepening starts at, and a flag that stops the search once it is
+	// set (null if the search cannot be stopped)
+	private int _start_depth = 1;
+	private AtomicBoolean _stop;
+
+	// The search also stops once System.nanoTime() passes the deadline (if there is one),
+	// but only after the first iteration has finished so there is always a move to return
+	private static final long NO_DEADLINE = Long.MAX_VALUE;
+	private long _deadline = NO_DEADLINE;
+	private boolean _timed_out = false;
+	private int _completed_depth = 0;
+
+	// Number of positions reached by alphabeta
+	private long _nodes = 0;
+
+	// The longest sequence of threats forcedWin looks for and the most positions it looks at
+	private static final int MAX_THREATS = 16;
+	private static final int MAX_THREAT_NODES = 100000;
+	private int _threat_nodes;
+
+	// The moves at each ply and the scores used to order them
+	private int[][] _moves;
+	private double[][] _scores;
+
+	// The last two moves at each ply that caused a cutoff, and how much each square has
+	// caused cutoffs anywhere in the tree (the depth left squared for each one)
+	private int[][] _killers;
+	private long[] _history = new long[64];
+
+	// Every parallel search runs on one pool with a worker for each available processor
+	// (created as they are needed, and daemon threads so they never keep the program
+	// running), and each thread that starts them reuses one SharedTranspositionTable
+	private static final ForkJoinPool _pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	private static final ThreadLocal<SharedTranspositionTable> _shared_tables = ThreadLocal.withInitial(SharedTranspositionTable::new);
+
+
+	// IN:	long				-> the position of the X's
+	//		long				-> the position of the O's
+	//		UtilityFunction		-> used to evaluate positions at the end of the search
+	//		TranspositionTable	-> where to store and look up searched positions
+	public QubicSearch(long x, long o, UtilityFunction utility_function, TranspositionTable transposition_table) {
+		_x = x;
+		_o = o;
+		_hash = TranspositionTable.hash(x, o);
+		_x_turn = Long.bitCount(x | o) % 2 == 0;
+		_utility_function = utility_function;
+		_transposition_table = transposition_table;
+
+		_x_counts = new byte[QubicImpl.WIN_PATTERNS.length];
+		_o_counts = new byte[QubicImpl.WIN_PATTERNS.length];
+		for (int line = 0; line < QubicImpl.WIN_PATTERNS.length; line++) {
+			long win_pattern = QubicImpl.WIN_PATTERNS[line];
+			_x_counts[line] = (byte) Long.bitCount(x & win_pattern);
+			_o_counts[line] = (byte) Long.bitCount(o & win_pattern);
+			if (_x_counts[line] == 4)
+				_winner = 1;
+			else if (_o_counts[line] == 4)
+				_winner = -1;
+			if (_o_counts[line] == 0)
+				_x_open[_x_counts[line]]++;
+			if (_x_counts[line] == 0)
+				_o_open[_o_counts[line]]++;
+		}
+	}
+
+	// IN:	int		-> the depth to search to for positions that are static (see isStatic)
+	//		int		-> the depth to search to for all other positions
+	// OUT:	int		-> the square of the best move
+	//
+	// Uses iterative deepening to calculate the values of each move starting from a depth
+	// of 1 up to a depth of max_depth. The values of the moves are saved to order the moves
+	// for the next iteration (best first), and alphabeta stores what it finds below them in
+	// the transposition table. The moves start in random order and are sorted without
+	// changing the order of ties, so a random best move is returned. If the search is stopped
+	// the best move from the last iteration that finished is returned. Once an iteration
+	// proves a win or a loss (every move loses), searching deeper would not change the
+	// result, so the search ends early. Before any of that, a forced win found by the threat
+	// search is played right away (unless it is only a one ply search), and moves that are
+	// the same as an earlier move after a symmetry of the position are dropped
+	public int bestMove(int min_depth, int max_depth) {
+		_hash ^= TranspositionTable.searchKey(_static_buffer);
+		_static_buffer = max_depth - min_depth;
+		_hash ^= TranspositionTable.searchKey(_static_buffer);
+		_moves = new int[max_depth + 1][64];
+		_scores = new double[max_depth + 1][64];
+		_killers = new int[max_depth + 1][2];
+		for (int[] killers : _killers)
+			killers[0] = killers[1] = -1;
+		_transposition_table.newSearch();
+
+		if (max_depth > 1) {
+			int forced_win = forcedWin();
+			if (forced_win >= 0)
+				return forced_win;
+		}
+
+		int[] moves = _moves[0];
+		double[] values = _scores[0];
+		int count = generateMoves(moves);
+		Random random = _random != null ? _random : ThreadLocalRandom.current();
+		for (int i = count - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int move = moves[i];
+			moves[i] = moves[j];
+			moves[j] = move;
+		}
+		count = removeSymmetricMoves(moves, count);
+
+		int overall_best = -1;
+		for (int depth = Math.min(_start_depth, max_depth); depth <= max_depth; depth++) {
+			if (depth > _start_depth)
+				sortForMover(moves, values, count);
+			// The first move (the best one for the moving player from the last iteration) is
+			// searched with the whole window and the rest are scouted against the best value
+			// so far (see alphabeta), so the order matters as much for O as for X
+			int best = -1;
+			for (int i = 0; i < count; i++) {
+				make(moves[i]);
+				double value;
+				if (best < 0)
+					value = alphabeta(depth - 1, 1, -1000 - max_depth, 1000 + max_depth);
+				else
+					value = scout(depth - 1, 1, values[best], -1000 - max_depth, 1000 + max_depth);
+				unmake(moves[i]);
+				if (stopped())
+					return overall_best >= 0 ? overall_best : moves[best >= 0 ? best : 0];
+				values[i] = value;
+				if (best < 0 || _x_turn && values[i] > values[best] || !_x_turn && values[i] < values[best])
+					best = i;
+			}
+			overall_best = moves[best];
+			_completed_depth = depth;
+			if (Math.abs(values[best]) >= QubicImpl.WIN_THRESHOLD)
+				break;
+		}
+		return overall_best;
+	}
+
+	// Makes the search pick between equally good moves with the given Random, so a search
+	// can be repeated by giving it a Random with the same seed
+	public void setRandom(Random random) {
+		_random = random;
+	}
+
+	// IN:	long	-> how long the search can take in milliseconds
+	// OUT:	int		-> the square of the best move
+	//
+	// Searches deeper and deeper (see bestMove) until the time runs out or every square is
+	// filled, and returns the best move from the deepest search that finished. The time is
+	// only checked every 1024 positions, so the search can go slightly over
+	public int bestMoveWithin(long milliseconds) {
+		_deadline = System.nanoTime() + milliseconds * 1000000;
+		int empty = Long.bitCount(~(_x | _o));
+		return bestMove(empty, empty);
+	}
+
+	// Returns the depth of the last iteration that finished
+	public int getCompletedDepth() {
+		return _completed_depth;
+	}
+
+	// IN:	long				-> the position of the X's
+	//		long				-> the position of the O's
+	//		UtilityFunction		-> used to evaluate positions at the end of the search
+	//		int					-> the depth to search to for positions that are static
+	//		int					-> the depth to search to for all other positions
+	//		int					-> the number of threads to search on
+	// OUT:	int					-> the square of the best move
+	//
+	// Lazy SMP on a ForkJoinPool. Every thread runs the same iterative deepening search on
+	// its own QubicSearch, and they all share one SharedTranspositionTable. The searches
+	// start with their moves in different random orders and every other one starts a ply
+	// deeper, so they spread out over the tree and fill the table with results the others
+	// can use instead of searching them again. The move found by the first search is
+	// returned, and the rest are stopped as soon as it is done. All of them share one pool,
+	// so at most one search runs for each available processor however many threads are
+	// asked for. The table is reused from the last parallel search started on this thread,
+	// and is cleared first since the UtilityFunction could have changed
+	public static int parallelBestMove(long x, long o, UtilityFunction utility_function, int min_depth, int max_depth, int threads) {
+		return parallelBestMove(x, o, utility_function, min_depth, max_depth, threads, NO_DEADLINE);
+	}
+
+	// IN:	long				-> the position of the X's
+	//		long				-> the position of the O's
+	//		UtilityFunction		-> used to evaluate positions at the end of the search
+	//		long				-> how long the search can take in milliseconds
+	//		int					-> the number of threads to search on
+	// OUT:	int					-> the square of the best move
+	//
+	// The same Lazy SMP search as parallelBestMove, but every search goes deeper and deeper
+	// (see bestMoveWithin) until the time runs out or every square is filled. The move from
+	// the deepest iteration the first search finished is returned
+	public static int parallelBestMoveWithin(long x, long o, UtilityFunction utility_function, long milliseconds, int threads) {
+		int empty = Long.bitCount(~(x | o));
+		return parallelBestMove(x, o, utility_function, empty, empty, threads, System.nanoTime() + milliseconds * 1000000);
+	}
+
+	// Starts a search on each thread of the pool with the given deadline (see parallelBestMove)
+	private static int parallelBestMove(long x, long o, UtilityFunction utility_function, int min_depth, int max_depth, int threads, long deadline) {
+		SharedTranspositionTable transposition_table = _shared_tables.get();
+		transposition_table.clear();
+		AtomicBoolean stop = new AtomicBoolean();
+		List<ForkJoinTask<Integer>> tasks = new ArrayList<ForkJoinTask<Integer>>();
+
+		int searches = Math.min(threads, _pool.getParallelism());
+		for (int i = 0; i < searches; i++) {
+			QubicSearch search = new QubicSearch(x, o, utility_function, transposition_table);
+			search._start_depth = 1 + i % 2;
+			search._stop = stop;
+			search._deadline = deadline;
+			tasks.add(_pool.submit(() -> search.bestMove(min_depth, max_depth)));
+		}
+		try {
+			return tasks.get(0).join();
+		} finally {
+			stop.set(true);
+			for (ForkJoinTask<Integer> task : tasks)
+				task.join();
+		}
+	}
+
+	// Returns the number of positions reached by alphabeta
+	public long getNodes() {
+		return _nodes;
+	}
+
+	// OUT:	int		-> the square of the first move of a forced win for the moving player, or
+	//				   -1 if none was found
+	//
+	// Threat-space search. Looks for a sequence of moves that each make a three-in-a-row
+	// with the fourth square open (a threat). The other player has to block each threat
+	// with the one square that completes it, so there is only one reply to look at for each
+	// move instead of every empty square, and sequences can be followed much deeper than
+	// alphabeta can search. A sequence wins once a move makes two threats at once. Threats
+	// the other player makes while blocking have to be blocked as well (which only works if
+	// the block makes a threat too), and a sequence fails if the other player could win
+	// first. Sequences of up to 1, 2, ... MAX_THREATS threats are tried so the shortest win is
+	// found, until MAX_THREAT_NODES positions have been looked at or the search is stopped or
+	// runs out of time (checked every 1024 positions, like alphabeta). Every win found is a
+	// real forced win, but not every forced win is found
+	public int forcedWin() {
+		_threat_nodes = 0;
+		for (int threats = 1; threats <= MAX_THREATS && _threat_nodes < MAX_THREAT_NODES; threats++) {
+			int move = forcedWin(threats);
+			if (move >= 0)
+				return move;
+		}
+		return -1;
+	}
+
+	// Returns the first move of a forced win for the moving player with at most the given
+	// number of threats, or -1. Results are stored in the transposition table (with the hash
+	// changed so they are not mixed up with alphabeta's), except for failures that might only
+	// be because the search ran out of positions
+	private int forcedWin(int threats) {
+		_threat_nodes++;
+		if ((_threat_nodes & 1023) == 0 && threatsStopped())
+			_threat_nodes = MAX_THREAT_NODES;
+		long wins = threatSquares(_x_turn);
+		if (wins != 0)
+			return Long.numberOfTrailingZeros(wins);
+		long blocks = threatSquares(!_x_turn);
+		if (Long.bitCount(blocks) > 1 || threats == 0 || _threat_nodes >= MAX_THREAT_NODES)
+			return -1;
+
+		long hash = _hash ^ TranspositionTable.threatKey();
+		if (_transposition_table.probe(hash, _entry) && (_entry.getValue() > 0 || _entry.getDepth() >= threats))
+			return _entry.getValue() > 0 ? _entry.getMove() : -1;
+
+		// If the other player has a threat it has to be blocked, otherwise try every move
+		// that makes a threat
+		long candidates = blocks != 0 ? blocks : threatMoves(_x_turn);
+		int found = -1;
+		for (; candidates != 0 && found < 0; candidates &= candidates - 1) {
+			int move = Long.numberOfTrailingZeros(candidates);
+			make(move);
+			long made = threatSquares(!_x_turn);
+			if (made != 0 && threatSquares(_x_turn) == 0) {
+				if (Long.bitCount(made) > 1) {
+					found = move;
+				} else {
+					int reply = Long.numberOfTrailingZeros(made);
+					make(reply);
+					if (forcedWin(threats - 1) >= 0)
+						found = move;
+					unmake(reply);
+				}
+			}
+			unmake(move);
+		}
+
+		if (found >= 0 || _threat_nodes < MAX_THREAT_NODES)
+			_transposition_table.store(hash, threats, TranspositionTable.EXACT, found >= 0 ? 1 : 0, found);
+		return found;
+	}
+
+	// Returns true if the search has been told to stop or has run out of time. Unlike
+	// stopped, this does not wait for an iteration to finish, since the threat search runs
+	// before any of them and iterative deepening still has to find a move afterwards
+	private boolean threatsStopped() {
+		return _deadline != NO_DEADLINE && System.nanoTime() - _deadline >= 0 || _stop != null && _stop.get();
+	}
+
+	// Returns the empty squares that would complete a win pattern for the player
+	private long threatSquares(boolean x) {
+		if ((x ? _x_open : _o_open)[3] == 0)
+			return 0;
+		byte[] own = x ? _x_counts : _o_counts;
+		byte[] other = x ? _o_counts : _x_counts;
+		long squares = 0;
+		for (int line = 0; line < own.length; line++)
+			if (own[line] == 3 && other[line] == 0)
+				squares |= QubicImpl.WIN_PATTERNS[line];
+		return squares & ~(_x | _o);
+	}
+
+	// Returns the empty squares that would make a threat for the player
+	private long threatMoves(boolean x) {
+		byte[] own = x ? _x_counts : _o_counts;
+		byte[] other = x ? _o_counts : _x_counts;
+		long squares = 0;
+		for (int line = 0; line < own.length; line++)
+			if (own[line] == 2 && other[line] == 0)
+				squares |= QubicImpl.WIN_PATTERNS[line];
+		return squares & ~(_x | _o);
+	}
+
+	// Recursive minimax algorithm with alpha-beta pruning (principal variation search).
+	// Move ordering, quiescence search and the transposition table are also included. If
+	// the search is stopped it returns right away without storing anything (the value it
+	// returns is meaningless)
+	private double alphabeta(int depth, int ply, double alpha, double beta) {
+		_nodes++;
+		if (stopped())
+			return 0;
+
+		// If the game is over return the appropriate value
+		if (_winner != 0 || (_x | _o) == -1L)
+			return (1000 + depth) * _winner;
+
+		// If the depth has been reached (or it is static and in the static buffer region)
+		// return the evaluation at its current position
+		if (depth <= 0 || depth <= _static_buffer && isStatic())
+			return utility();
+
+		// If this position was already searched at least this deep, use the stored value
+		// when it is exact or a bound that is outside of the window
+		if (_transposition_table.probe(_hash, _entry) && _entry.getDepth() >= depth) {
+			double value = fromTable(_entry.getValue(), depth);
+			byte bound = _entry.getBound();
+			if (bound == TranspositionTable.EXACT || bound == TranspositionTable.LOWER && value >= beta
+					|| bound == TranspositionTable.UPPER && value <= alpha)
+				return value;
+		}
+
+		int[] moves = _moves[ply];
+		int count = generateMoves(moves);
+		orderMoves(moves, _scores[ply], count, ply);
+
+		// The first move is searched with the whole window. Every other move is only checked
+		// to see if it is better than the best so far (with a window that has nothing in it),
+		// and only searched again with the whole window if it is. The result is stored in the
+		// transposition table as an upper bound if every move failed low, a lower bound if a
+		// move failed high, and otherwise as an exact value
+		double alpha_start = alpha;
+		double beta_start = beta;
+		double best = 0;
+		int best_move = -1;
+		for (int i = 0; i < count; i++) {
+			double value_to_beat = _x_turn ? alpha : beta;
+			make(moves[i]);
+			double evaluation;
+			if (best_move < 0)
+				evaluation = alphabeta(depth - 1, ply + 1, alpha, beta);
+			else
+				evaluation = scout(depth - 1, ply + 1, value_to_beat, alpha, beta);
+			unmake(moves[i]);
+			if (stopped())
+				return 0;
+			if (best_move < 0 || _x_turn && evaluation > best || !_x_turn && evaluation < best) {
+				best = evaluation;
+				best_move = moves[i];
+			}
+			if (_x_turn && evaluation > alpha)
+				alpha = evaluation;
+			if (!_x_turn && evaluation < beta)
+				beta = evaluation;
+			if (alpha >= beta) {
+				addCutoff(moves[i], depth, ply);
+				break;
+			}
+		}
+
+		byte bound = best <= alpha_start ? TranspositionTable.UPPER : best >= beta_start ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+		_transposition_table.store(_hash, depth, bound, toTable(best, depth), best_move);
+		return best;
+	}
+
+	// IN:	int		-> the depth left
+	//		int		-> how many moves from the root this is
+	//		double	-> the value to beat for the player who just moved
+	//		double	-> alpha
+	//		double	-> beta
+	// OUT:	double	-> the value of the position if it beats the value, or a bound showing
+	//				   that it does not
+	//
+	// Called after the move has been made. Searches with a window that has nothing in it
+	// just past the value to beat, which cuts off much more than the whole window does, and
+	// if the move turns out to beat it, searches again with the whole window to get its value
+	private double scout(int depth, int ply, double value, double alpha, double beta) {
+		if (!_x_turn) {
+			double evaluation = alphabeta(depth, ply, value, Math.nextUp(value));
+			return evaluation > value && evaluation < beta ? alphabeta(depth, ply, alpha, beta) : evaluation;
+		} else {
+			double evaluation = alphabeta(depth, ply, Math.nextDown(value), value);
+			return evaluation < value && evaluation > alpha ? alphabeta(depth, ply, alpha, beta) : evaluation;
+		}
+	}
+
+	// Remembers a move that caused a cutoff as a killer move for its ply and adds to its
+	// history
+	private void addCutoff(int move, int depth, int ply) {
+		if (_killers[ply][0] != move) {
+			_killers[ply][1] = _killers[ply][0];
+			_killers[ply][0] = move;
+		}
+		_history[move] += depth * depth;
+	}
+
+	// Puts the square of every empty square in moves and returns how many there are (also
+	// timed by Benchmark)
+	int generateMoves(int[] moves) {
+		int count = 0;
+		for (long empty = ~(_x | _o); empty != 0; empty &= empty - 1)
+			moves[count++] = Long.numberOfTrailingZeros(empty);
+		return count;
+	}
+
+	// IN:	int[]	-> the moves to choose from
+	//		int		-> how many moves there are
+	// OUT:	int		-> how many moves are left
+	//
+	// Finds the symmetries (that keep SquareTypes, so utility does not change) that leave the
+	// position as it is, and drops every move that one of them turns into an earlier move,
+	// since both moves lead to the same position turned around. Early in the game this
+	// leaves only a few of the moves (4 on an empty board), and later on when no symmetry
+	// fits the position nothing is dropped
+	private int removeSymmetricMoves(int[] moves, int count) {
+		int[] symmetries = new int[Symmetry.SQUARE_TYPE_COUNT];
+		int fits = 0;
+		for (int symmetry = 1; symmetry < Symmetry.SQUARE_TYPE_COUNT; symmetry++)
+			if (Symmetry.apply(symmetry, _x) == _x && Symmetry.apply(symmetry, _o) == _o)
+				symmetries[fits++] = symmetry;
+		if (fits == 0)
+			return count;
+
+		long kept = 0;
+		int left = 0;
+		for (int i = 0; i < count; i++) {
+			boolean duplicate = false;
+			for (int j = 0; j < fits && !duplicate; j++)
+				duplicate = (kept & 1L << Symmetry.apply(symmetries[j], moves[i])) != 0;
+			if (!duplicate) {
+				kept |= 1L << moves[i];
+				moves[left++] = moves[i];
+			}
+		}
+		return left;
+	}
+
+	// Orders moves starting with the best move stored in the transposition table for this
+	// position (always searched first), then the killer moves for the ply, and then the rest
+	// by their history
+	private void orderMoves(int[] moves, double[] scores, int count, int ply) {
+		int best_move = _transposition_table.bestMove(_hash);
+		for (int i = 0; i < count; i++) {
+			int move = moves[i];
+			if (move == best_move)
+				scores[i] = Double.POSITIVE_INFINITY;
+			else if (move == _killers[ply][0])
+				scores[i] = Double.MAX_VALUE;
+			else if (move == _killers[ply][1])
+				scores[i] = Math.nextDown(Double.MAX_VALUE);
+			else
+				scores[i] = _history[move];
+		}
+		sort(moves, scores, count);
+	}
+
+	// Sorts moves by their values (which are from X's side) from best to worst for the
+	// moving player, so O's lowest values come first when it is O's turn
+	private void sortForMover(int[] moves, double[] values, int count) {
+		if (!_x_turn)
+			for (int i = 0; i < count; i++)
+				values[i] = -values[i];
+		sort(moves, values, count);
+		if (!_x_turn)
+			for (int i = 0; i < count; i++)
+				values[i] = -values[i];
+	}
+
+	// Sorts moves from highest to lowest score, keeping ties in the same order (insertion
+	// sort, since there are never more than 64 moves)
+	private void sort(int[] moves, double[] scores, int count) {
+		for (int i = 1; i < count; i++) {
+			int move = moves[i];
+			double score = scores[i];
+			int j = i - 1;
+			while (j >= 0 && scores[j] < score) {
+				moves[j + 1] = moves[j];
+				scores[j + 1] = scores[j];
+				j--;
+			}
+			moves[j + 1] = move;
+			scores[j + 1] = score;
+		}
+	}
+
+	// Puts a piece for the moving player on the square
+	private void make(int square) {
+		byte[] own = _x_turn ? _x_counts : _o_counts;
+		byte[] other = _x_turn ? _o_counts : _x_counts;
+		int[] own_open = _x_turn ? _x_open : _o_open;
+		int[] other_open = _x_turn ? _o_open : _x_open;
+		for (int line : QubicImpl.SQUARE_LINES[square]) {
+			int own_count = ++own[line];
+			int other_count = other[line];
+			if (own_count == 1)
+				other_open[other_count]--;
+			if (other_count == 0) {
+				own_open[own_count - 1]--;
+				own_open[own_count]++;
+				if (own_count == 4)
+					_winner = _x_turn ? 1 : -1;
+			}
+		}
+
+		_hash ^= TranspositionTable.key(_x_turn, square);
+		if (_x_turn)
+			_x |= 1L << square;
+		else
+			_o |= 1L << square;
+		_x_turn = !_x_turn;
+	}
+
+	// Takes back the piece that was last put on the square (undoing everything make did)
+	private void unmake(int square) {
+		_x_turn = !_x_turn;
+		if (_x_turn)
+			_x &= ~(1L << square);
+		else
+			_o &= ~(1L << square);
+		_hash ^= TranspositionTable.key(_x_turn, square);
+
+		byte[] own = _x_turn ? _x_counts : _o_counts;
+		byte[] other = _x_turn ? _o_counts : _x_counts;
+		int[] own_open = _x_turn ? _x_open : _o_open;
+		int[] other_open = _x_turn ? _o_open : _x_open;
+		for (int line : QubicImpl.SQUARE_LINES[square]) {
+			int own_count = own[line]--;
+			int other_count = other[line];
+			if (own_count == 1)
+				other_open[other_count]++;
+			if (other_count == 0) {
+				own_open[own_count - 1]++;
+				own_open[own_count]--;
+				if (own_count == 4)
+					_winner = 0;
+			}
+		}
+	}
+
+	// Returns true if the search has been told to stop or has run out of time
+	private boolean stopped() {
+		if (_deadline != NO_DEADLINE && (_nodes & 1023) == 0 && _completed_depth > 0 && System.nanoTime() - _deadline >= 0)
+			_timed_out = true;
+		return _timed_out || _stop != null && _stop.get();
+	}
+
+	// Determines if the current position is static. A static position is defined as
+	// any position in which the moving player is not being forced to go to a particular
+	// square (in other words, there is no active three-in-a-row for the opponent)
+	private boolean isStatic() {
+		return (_x_turn ? _o_open : _x_open)[3] == 0;
+	}
+
+	// Returns the utility of the current position according to the utility_function (also
+	// timed by Benchmark)
+	double utility() {
+		return _utility_function.getValue(_x, _o) + _utility_function.getValue(_x_open, _o_open);
+	}
+
+	// Win values count the depth left when the game ended, which depends on where the
+	// position is in the search. They are stored as 1000 minus the number of moves to the
+	// win instead so they can be used at any depth
+	private static double toTable(double value, int depth) {
+		if (value >= QubicImpl.WIN_THRESHOLD)
+			return value - depth;
+		if (value <= -QubicImpl.WIN_THRESHOLD)
+			return value + depth;
+		return value;
+	}
+
+	private static double fromTable(double value, int depth) {
+		if (value >= QubicImpl.WIN_THRESHOLD)
+			return value + depth;
+		if (value <= -QubicImpl.WIN_THRESHOLD)
+			return value - depth;
+		return value;
+	}
+
+}
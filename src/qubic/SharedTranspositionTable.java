@@ -0,0 +1,120 @@
+package qubic;
+
+// SharedTranspositionTable is a TranspositionTable that any number of searches can use at
+// the same time without locking. Each slot is three longs: the data (depth, bound and best
+// move), the value, and the hash XORed with both of them. A slot is only used if XORing
+// all three gives back the hash that was looked up, so if two threads write the same slot
+// at once (or one reads while another writes) the mixed up slot is just treated as empty.
+//
+// The slots are in buckets of two. The first slot of a bucket keeps whichever position was
+// searched deepest, and the second slot always takes the newest position, so deep results
+// are kept without the table filling up with old ones. Values are used no matter which
+// search stored them, so all of the searches using a table have to use the same
+// UtilityFunction. A table can be reused with a different UtilityFunction after calling
+// clear, which makes the values stored before it unusable (their best moves are still
+// used for move ordering until they are replaced) without writing to the whole table.
+
+public class SharedTranspositionTable extends TranspositionTable {
+
+	// Number of buckets used if none is given (2^18 buckets, about 12 MB)
+	public static final int DEFAULT_BITS = 18;
+
+	private int _mask;
+	private long[] _slots;
+
+	// Which call to clear the table is on (stored with each entry to tell old entries apart)
+	private int _generation = 0;
+
+	public SharedTranspositionTable() {
+		this(DEFAULT_BITS);
+	}
+
+	// Creates a table with 2^bits buckets
+	public SharedTranspositionTable(int bits) {
+		_mask = (1 << bits) - 1;
+		_slots = new long[3 * 2 << bits];
+	}
+
+	// Does nothing, since entries from every search are used
+	@Override
+	public void newSearch() {
+	}
+
+	// Makes every entry stored so far only usable for its best move. Must not be called
+	// while any search is using the table
+	public void clear() {
+		_generation++;
+	}
+
+	// See TranspositionTable. Each slot is read once and checked, so another thread
+	// writing to it at the same time cannot mix up what is returned. Only positions stored
+	// since the table was last cleared are found
+	@Override
+	public boolean probe(long hash, Entry entry) {
+		int first = bucket(hash);
+		for (int index = first; index <= first + 3; index += 3) {
+			long data = _slots[index];
+			long value_bits = _slots[index + 1];
+			if (data != 0 && (_slots[index + 2] ^ data ^ value_bits) == hash && generation(data) == _generation) {
+				entry.set(depth(data), (byte) (data >>> 8 & 0xFF), Double.longBitsToDouble(value_bits), move(data));
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// See TranspositionTable
+	@Override
+	public int bestMove(long hash) {
+		int first = bucket(hash);
+		for (int index = first; index <= first + 3; index += 3) {
+			long data = _slots[index];
+			if (data != 0 && (_slots[index + 2] ^ data ^ _slots[index + 1]) == hash)
+				return move(data);
+		}
+		return -1;
+	}
+
+	// See TranspositionTable. The position goes in the first slot of its bucket if it is
+	// already there, was searched at least as deep as what is there, or what is there was
+	// stored before the table was last cleared, and otherwise in the second slot
+	@Override
+	public void store(long hash, int depth, byte bound, double value, int move) {
+		int first = bucket(hash);
+		int index = first + 3;
+		long first_data = _slots[first];
+		if (key(first) == hash || depth >= depth(first_data) || generation(first_data) != _generation)
+			index = first;
+		if (move < 0 && key(index) == hash)
+			move = move(_slots[index]);
+
+		long data = depth | (bound & 0xFFL) << 8 | (move + 1L) << 16 | (_generation & 0xFFFFFFFFL) << 32;
+		long value_bits = Double.doubleToRawLongBits(value);
+		_slots[index] = data;
+		_slots[index + 1] = value_bits;
+		_slots[index + 2] = hash ^ data ^ value_bits;
+	}
+
+	// Returns the index of the first slot in the bucket for the hash
+	private int bucket(long hash) {
+		return 6 * ((int) hash & _mask);
+	}
+
+	// Returns the hash of the position in the slot (or garbage if it is being written)
+	private long key(int index) {
+		return _slots[index + 2] ^ _slots[index] ^ _slots[index + 1];
+	}
+
+	private static int depth(long data) {
+		return (int) (data & 0xFF);
+	}
+
+	private static int move(long data) {
+		return (int) (data >>> 16 & 0xFF) - 1;
+	}
+
+	private static int generation(long data) {
+		return (int) (data >>> 32);
+	}
+
+}
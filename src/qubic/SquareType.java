@@ -32,8 +32,20 @@ public enum SquareType {
 			SquareType.CORNER, SquareType.EDGE, SquareType.EDGE, SquareType.CORNER
 	};
 	
+	// The squares of each SquareType (1 for a square of that type), indexed by ordinal
+	private static final long[] MASKS = new long[values().length];
+	static {
+		for (int square = 0; square < 64; square++)
+			MASKS[LAYOUT[square].ordinal()] |= 1L << square;
+	}
+	
 	public static SquareType valueOf(long l) {
 		return LAYOUT[Long.numberOfTrailingZeros(l)];
 	}
+	
+	// Returns a long with a 1 for every square of this SquareType
+	public long getMask() {
+		return MASKS[ordinal()];
+	}
 
 }
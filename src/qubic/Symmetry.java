@@ -0,0 +1,177 @@
+package qubic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Symmetry holds the 192 ways of moving the squares of the cube around that turn every win
+// pattern into another win pattern: the 48 rotations and reflections of the cube, each
+// combined with the 4 ways of swapping the inner and outer squares along every axis at once.
+// Two positions that one of these turns into each other are the same game, so only one of
+// them has to be searched, and a canonical form (the one with the lowest X's and then O's
+// out of all the ways of turning it) can stand for all of them.
+//
+// Swapping the inner and outer squares turns corners into centers and edges into faces, so
+// positions related that way only have the same utility when the UtilityFunction values
+// are not used. Every method that canonicalizes takes a flag to only use the 96 symmetries
+// that keep each square the same SquareType (needed whenever positions are evaluated).
+
+public class Symmetry {
+
+	// Where each symmetry sends each square (symmetry 0 leaves every square where it is),
+	// and the symmetry that undoes each one
+	private static final int[][] PERMUTATIONS;
+	private static final int[] INVERSES;
+
+	// How many symmetries there are and how many keep every square the same SquareType. The
+	// ones that keep SquareTypes come first
+	public static final int COUNT;
+	public static final int SQUARE_TYPE_COUNT;
+
+	// Finds every symmetry by trying each way of reordering the three axes together with
+	// each way of reordering the four positions along each axis, and keeping the ones that
+	// turn every win pattern into a win pattern. Only reorderings that keep opposite
+	// positions opposite (0 and 3, 1 and 2) are tried, since the diagonals of a plane can
+	// only stay diagonals if they do
+	static {
+		List<int[]> keep_types = new ArrayList<int[]>();
+		List<int[]> swap_types = new ArrayList<int[]>();
+		List<int[]> opposite_orders = new ArrayList<int[]>();
+		for (int[] order : permutations(4))
+			if (order[3] == 3 - order[0] && order[2] == 3 - order[1])
+				opposite_orders.add(order);
+		int[][] orders = opposite_orders.toArray(new int[opposite_orders.size()][]);
+		for (int[] axes : permutations(3))
+			for (int[] a : orders)
+				for (int[] b : orders)
+					for (int[] c : orders) {
+						int[][] along = new int[][] { a, b, c };
+						int[] permutation = new int[64];
+						for (int square = 0; square < 64; square++) {
+							int[] from = new int[] { square / 16, square / 4 % 4, square % 4 };
+							int[] to = new int[3];
+							for (int axis = 0; axis < 3; axis++)
+								to[axes[axis]] = along[axis][from[axis]];
+							permutation[square] = 16 * to[0] + 4 * to[1] + to[2];
+						}
+						if (keepsWinPatterns(permutation))
+							(keepsSquareTypes(permutation) ? keep_types : swap_types).add(permutation);
+					}
+
+		keep_types.addAll(swap_types);
+		PERMUTATIONS = keep_types.toArray(new int[keep_types.size()][]);
+		COUNT = PERMUTATIONS.length;
+		SQUARE_TYPE_COUNT = COUNT - swap_types.size();
+
+		INVERSES = new int[COUNT];
+		for (int symmetry = 0; symmetry < COUNT; symmetry++)
+			for (int other = 0; other < COUNT; other++)
+				if (PERMUTATIONS[other][PERMUTATIONS[symmetry][1]] == 1 && undoes(PERMUTATIONS[other], PERMUTATIONS[symmetry]))
+					INVERSES[symmetry] = other;
+	}
+
+	// Returns where the symmetry sends the square
+	public static int apply(int symmetry, int square) {
+		return PERMUTATIONS[symmetry][square];
+	}
+
+	// Returns the board (of X's or O's) after the symmetry moves its squares
+	public static long apply(int symmetry, long board) {
+		int[] permutation = PERMUTATIONS[symmetry];
+		long result = 0;
+		for (long pieces = board; pieces != 0; pieces &= pieces - 1)
+			result |= 1L << permutation[Long.numberOfTrailingZeros(pieces)];
+		return result;
+	}
+
+	// Returns the symmetry that undoes the given one
+	public static int inverse(int symmetry) {
+		return INVERSES[symmetry];
+	}
+
+	// IN:	long	-> the position of the X's
+	//		long	-> the position of the O's
+	//		boolean	-> true to only use the symmetries that keep SquareTypes
+	// OUT:	int		-> the symmetry that turns the position into its canonical form
+	public static int canonical(long x, long o, boolean keep_square_types) {
+		int best = 0;
+		long best_x = x;
+		long best_o = o;
+		int count = keep_square_types ? SQUARE_TYPE_COUNT : COUNT;
+		for (int symmetry = 1; symmetry < count; symmetry++) {
+			long next_x = apply(symmetry, x);
+			int order = Long.compareUnsigned(next_x, best_x);
+			if (order > 0)
+				continue;
+			long next_o = apply(symmetry, o);
+			if (order < 0 || Long.compareUnsigned(next_o, best_o) < 0) {
+				best = symmetry;
+				best_x = next_x;
+				best_o = next_o;
+			}
+		}
+		return best;
+	}
+
+	// Returns true if the two positions are the same after one of the symmetries
+	public static boolean equivalent(long x1, long o1, long x2, long o2, boolean keep_square_types) {
+		if (Long.bitCount(x1) != Long.bitCount(x2) || Long.bitCount(o1) != Long.bitCount(o2))
+			return false;
+		int s1 = canonical(x1, o1, keep_square_types);
+		int s2 = canonical(x2, o2, keep_square_types);
+		return apply(s1, x1) == apply(s2, x2) && apply(s1, o1) == apply(s2, o2);
+	}
+
+	// Returns true if the permutation turns every win pattern into a win pattern
+	private static boolean keepsWinPatterns(int[] permutation) {
+		for (long win_pattern : QubicImpl.WIN_PATTERNS) {
+			long moved = 0;
+			for (long squares = win_pattern; squares != 0; squares &= squares - 1)
+				moved |= 1L << permutation[Long.numberOfTrailingZeros(squares)];
+			boolean found = false;
+			for (long other : QubicImpl.WIN_PATTERNS)
+				found |= moved == other;
+			if (!found)
+				return false;
+		}
+		return true;
+	}
+
+	// Returns true if the first permutation puts every square back where the second one
+	// took it from
+	private static boolean undoes(int[] first, int[] second) {
+		for (int square = 0; square < 64; square++)
+			if (first[second[square]] != square)
+				return false;
+		return true;
+	}
+
+	// Returns true if the permutation keeps every square the same SquareType
+	private static boolean keepsSquareTypes(int[] permutation) {
+		for (int square = 0; square < 64; square++)
+			if (SquareType.valueOf(1L << square) != SquareType.valueOf(1L << permutation[square]))
+				return false;
+		return true;
+	}
+
+	// Returns every ordering of 0 to n-1 (with 0, 1, ... n-1 first)
+	private static int[][] permutations(int n) {
+		List<int[]> result = new ArrayList<int[]>();
+		permutations(new int[n], 0, new boolean[n], result);
+		return result.toArray(new int[result.size()][]);
+	}
+
+	private static void permutations(int[] order, int index, boolean[] used, List<int[]> result) {
+		if (index == order.length) {
+			result.add(order.clone());
+			return;
+		}
+		for (int i = 0; i < order.length; i++)
+			if (!used[i]) {
+				used[i] = true;
+				order[index] = i;
+				permutations(order, index + 1, used, result);
+				used[i] = false;
+			}
+	}
+
+}
@@ -0,0 +1,122 @@
+package qubic;
+
+import java.util.Random;
+
+// A TranspositionTable stores the results of positions that have already been searched so
+// they do not have to be searched again. Positions are identified by a Zobrist hash (one
+// random long for each square and player, XORed together for every piece on the board),
+// which can be updated with a single XOR when a move is made. Every entry keeps the depth
+// the position was searched to, whether the value is exact or only a lower or upper bound,
+// the value, and the best move that was found.
+//
+// LocalTranspositionTable can only be used by one search at a time, and only uses values
+// from the search that is currently running. SharedTranspositionTable can be used by any
+// number of searches at once, which all use each other's values, so it should only be
+// shared by searches that use the same UtilityFunction.
+
+public abstract class TranspositionTable {
+
+	public static final byte EXACT = 0;
+	public static final byte LOWER = 1;
+	public static final byte UPPER = 2;
+
+	// Random keys for each square, one set for X and one set for O
+	private static final long[] X_KEYS = new long[64];
+	private static final long[] O_KEYS = new long[64];
+
+	// Random keys for the static buffer of a search (see QubicSearch), since the values
+	// found with different buffers are not the same
+	private static final long[] SEARCH_KEYS = new long[65];
+
+	// Random key for the results of the threat search (see QubicSearch.forcedWin)
+	private static final long THREAT_KEY;
+	static {
+		Random random = new Random(64);
+		for (int i = 0; i < 64; i++) {
+			X_KEYS[i] = random.nextLong();
+			O_KEYS[i] = random.nextLong();
+		}
+		for (int i = 0; i < SEARCH_KEYS.length; i++)
+			SEARCH_KEYS[i] = i == 0 ? 0 : random.nextLong();
+		THREAT_KEY = random.nextLong();
+	}
+
+	// Returns the hash of the given position
+	public static long hash(long x, long o) {
+		long hash = 0;
+		for (long pieces = x; pieces != 0; pieces &= pieces - 1)
+			hash ^= X_KEYS[Long.numberOfTrailingZeros(pieces)];
+		for (long pieces = o; pieces != 0; pieces &= pieces - 1)
+			hash ^= O_KEYS[Long.numberOfTrailingZeros(pieces)];
+		return hash;
+	}
+
+	// Returns what to XOR into a hash when the given player moves on the given square
+	public static long key(boolean x_turn, int square) {
+		return x_turn ? X_KEYS[square] : O_KEYS[square];
+	}
+
+	// Returns what to XOR into every hash of a search with the given static buffer
+	public static long searchKey(int static_buffer) {
+		return SEARCH_KEYS[Math.min(static_buffer, SEARCH_KEYS.length - 1)];
+	}
+
+	// Returns what to XOR into the hash of a position to store a threat search result for it
+	public static long threatKey() {
+		return THREAT_KEY;
+	}
+
+	// Called at the start of every search
+	public abstract void newSearch();
+
+	// IN:	long	-> the hash of the position
+	//		Entry	-> where to put what is stored for the position
+	// OUT:	boolean	-> true if the position was found and its value can be used
+	public abstract boolean probe(long hash, Entry entry);
+
+	// Returns the best move that was stored for the position, or -1 if there is none
+	public abstract int bestMove(long hash);
+
+	// IN:	long	-> the hash of the position
+	//		int		-> the depth the position was searched to (at least 1)
+	//		byte	-> EXACT, LOWER or UPPER
+	//		double	-> the value of the position
+	//		int		-> the square of the best move, or -1 if there is none
+	//
+	// Stores the result of a search (the table decides what to replace)
+	public abstract void store(long hash, int depth, byte bound, double value, int move);
+
+	// An Entry holds what probe found, so a search can reuse one Entry for every probe
+	public static class Entry {
+
+		private int _depth;
+		private byte _bound;
+		private double _value;
+		private int _move;
+
+		public int getDepth() {
+			return _depth;
+		}
+
+		public byte getBound() {
+			return _bound;
+		}
+
+		public double getValue() {
+			return _value;
+		}
+
+		public int getMove() {
+			return _move;
+		}
+
+		void set(int depth, byte bound, double value, int move) {
+			_depth = depth;
+			_bound = bound;
+			_value = value;
+			_move = move;
+		}
+
+	}
+
+}
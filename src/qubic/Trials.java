@@ -1,17 +1,51 @@
 package qubic;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 // Trials contains the driver method and static methods that allow the Qubic to train a
 // UtilityFunction and then play a game using those values
+//
+// Usage: java qubic/Trials [threads] [seed] [checkpoint] [lines]
+//		threads		-> plays the trials on this many threads at once (see runTrials).
+//					   Defaults to playing them one at a time
+//		seed		-> the seed the trials are played with. Defaults to a random seed
+//		checkpoint	-> the file to save the values to while training, and to start from if
+//					   it already exists (see runTrials). If it already has n3 trials the
+//					   values are just loaded from it. "-" for no file
+//		lines		-> true to learn values for open win patterns too (see
+//					   UtilityFunction.setUsesLines). Defaults to false
 
 public class Trials {
 
-	public static void main(String[] args) { 
+	// How many trials are played at once before the UtilityFunction is updated with them
+	private static final int TRIALS_PER_BATCH = 1024;
+
+	// How many trials are played between checkpoints (a whole number of batches)
+	private static final int CHECKPOINT_TRIALS = 10 * TRIALS_PER_BATCH;
+
+	public static void main(String[] args) throws IOException { 
 		Scanner input = new Scanner(System.in);
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+		Path checkpoint = args.length > 2 && !args[2].equals("-") ? Paths.get(args[2]) : null;
+		boolean uses_lines = args.length > 3 && Boolean.parseBoolean(args[3]);
 			
 		System.out.println("Number of trials (input: n1 n2 n3):");
-		UtilityFunction learned_values = runTrials(input.nextInt(), input.nextInt(), input.nextInt());
+		UtilityFunction learned_values = args.length > 0
+				? runTrials(input.nextInt(), input.nextInt(), input.nextInt(), threads, seed, checkpoint, uses_lines)
+				: runTrials(input.nextInt(), input.nextInt(), input.nextInt());
 		
 		try {
 			while(true) {
@@ -27,14 +61,29 @@ public class Trials {
 	// Runs n3 trials and prints out the values in the UtilityFunction after n1, 
 	// n2, and n3 trials have been run
 	public static UtilityFunction runTrials(int n1, int n2, int n3) {
-		UtilityFunction learned_values = new UtilityFunction();
-		for (int i = 0; i < n3; i++) {
+		try {
+			return runTrials(n1, n2, n3, null);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // cannot happen without a checkpoint file
+		}
+	}
+
+	// Same as runTrials(n1, n2, n3), but the values are saved to the checkpoint file (if it
+	// is not null) every CHECKPOINT_TRIALS trials and after the last one. If the file already
+	// exists, the values are loaded from it and the trials start after the ones it was saved
+	// after, so a run that was stopped can be picked up where it left off
+	public static UtilityFunction runTrials(int n1, int n2, int n3, Path checkpoint) throws IOException {
+		UtilityFunction learned_values = startTrials(checkpoint, false);
+		for (int i = learned_values.getTrials(); i < n3; i++) {
 			if (i == n1 || i == n2) {
 				System.out.println("After " + i + " trials:");
 				learned_values.print();
 			}
 			runTrial(learned_values, i+1, n3);
+			if ((i + 1) % CHECKPOINT_TRIALS == 0)
+				saveTrials(learned_values, i + 1, checkpoint);
 		}
+		saveTrials(learned_values, Math.max(n3, learned_values.getTrials()), checkpoint);
 		
 		System.out.println("After " + n3 + " trials:");
 		learned_values.print();
@@ -42,6 +91,94 @@ public class Trials {
 		return learned_values;
 	}
 	
+	// IN:	int		-> the number of trials to print the values after first
+	//		int		-> the number of trials to print the values after second
+	//		int		-> the total number of trials
+	//		int		-> the number of threads to play the trials on
+	//		long	-> the seed the trials are played with
+	// OUT:	UtilityFunction	-> the values learned from the trials
+	//
+	// Same as runTrials(n1, n2, n3), but the trials are played on a pool of threads in
+	// batches of TRIALS_PER_BATCH. Every trial in a batch plays with a copy of the
+	// values from before the batch, and each one has its own Random seeded from the seed and
+	// its number. Once the whole batch is done, the finished games update the values in the
+	// order of their numbers with the same learning rates runTrials(n1, n2, n3) uses, so the
+	// same seed always learns the same values no matter how many threads are used
+	public static UtilityFunction runTrials(int n1, int n2, int n3, int threads, long seed) {
+		try {
+			return runTrials(n1, n2, n3, threads, seed, null);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // cannot happen without a checkpoint file
+		}
+	}
+
+	// Same as runTrials(n1, n2, n3, threads, seed), but saves checkpoints and picks up from
+	// them like runTrials(n1, n2, n3, checkpoint). Checkpoints are only saved between
+	// batches, so a run picked up with the same seed learns the same values as one that
+	// was never stopped
+	public static UtilityFunction runTrials(int n1, int n2, int n3, int threads, long seed, Path checkpoint) throws IOException {
+		return runTrials(n1, n2, n3, threads, seed, checkpoint, false);
+	}
+
+	// Same as runTrials(n1, n2, n3, threads, seed, checkpoint), but if uses_lines is true the
+	// values of open win patterns are learned too (see UtilityFunction.setUsesLines). A run
+	// picked up from a checkpoint learns them if the values it saved did
+	public static UtilityFunction runTrials(int n1, int n2, int n3, int threads, long seed, Path checkpoint, boolean uses_lines) throws IOException {
+		UtilityFunction learned_values = startTrials(checkpoint, uses_lines);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (int first = learned_values.getTrials(); first < n3; first += TRIALS_PER_BATCH) {
+				UtilityFunction batch_values = new UtilityFunction(learned_values);
+				List<Future<Qubic>> trials = new ArrayList<Future<Qubic>>();
+				for (int i = first; i < Math.min(first + TRIALS_PER_BATCH, n3); i++) {
+					int current_trial = i + 1;
+					Random random = new Random(seed ^ current_trial * 0x9E3779B97F4A7C15L);
+					trials.add(executor.submit(() -> playTrial(batch_values, current_trial, n3, random)));
+				}
+				for (int i = first; i < first + trials.size(); i++) {
+					if (i == n1 || i == n2) {
+						System.out.println("After " + i + " trials:");
+						learned_values.print();
+					}
+					trials.get(i - first).get().updateUtilityFunction(learned_values, 1.0 / (i + 1));
+				}
+				int done = first + trials.size();
+				if (done / CHECKPOINT_TRIALS > first / CHECKPOINT_TRIALS)
+					saveTrials(learned_values, done, checkpoint);
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			executor.shutdownNow();
+		}
+		saveTrials(learned_values, Math.max(n3, learned_values.getTrials()), checkpoint);
+
+		System.out.println("After " + n3 + " trials:");
+		learned_values.print();
+
+		return learned_values;
+	}
+	
+	// Returns the values saved in the checkpoint file, or new values (that learn the values of
+	// open win patterns if uses_lines is true) if there is no file
+	private static UtilityFunction startTrials(Path checkpoint, boolean uses_lines) throws IOException {
+		if (checkpoint == null || !Files.exists(checkpoint)) {
+			UtilityFunction learned_values = new UtilityFunction();
+			learned_values.setUsesLines(uses_lines);
+			return learned_values;
+		}
+		UtilityFunction learned_values = UtilityFunction.load(checkpoint);
+		System.out.println("Starting after " + learned_values.getTrials() + " trials from " + checkpoint);
+		return learned_values;
+	}
+
+	// Saves the values after the given number of trials to the checkpoint file (if there is one)
+	private static void saveTrials(UtilityFunction learned_values, int trials, Path checkpoint) throws IOException {
+		learned_values.setTrials(trials);
+		if (checkpoint != null)
+			learned_values.save(checkpoint);
+	}
+
 	// Runs a single trial by playing a game against itself. It plays against a random opponent
 	// and chooses its own squares randomly or according to a one ply search with the
 	// utility_function based on the exploitation_rate. The utility_function is updated of the
@@ -57,6 +194,18 @@ public class Trials {
 		trial.updateUtilityFunction(uf, learning_rate);
 	}
 
+	// Same as runTrial, but every random choice is made with the given Random and the
+	// finished game is returned instead of updating the utility_function
+	private static Qubic playTrial(UtilityFunction uf, double current_trial, int total_trials, Random random) {
+		double exploitation_rate = current_trial/total_trials-.5;
+
+		Qubic trial = Qubic.newGame();
+		boolean is_x = random.nextDouble() < 0.5;
+		while (trial.winner() == null)
+			trial = trial.xTurn() ^ is_x ? trial.move(uf, 0, random) : trial.move(uf, random.nextDouble() < exploitation_rate ? 1 : 0, random);
+		return trial;
+	}
+
 	// Plays a game of Qubic using ai for 0, 1, or 2 of the players according to the inputs. 
 	// If an ai is used, it evaluates positions according to the given utility_function
 	public static void playGame(UtilityFunction uf, boolean x_uses_ai, boolean o_uses_ai) {
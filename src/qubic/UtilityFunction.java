@@ -1,34 +1,174 @@
 package qubic;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.MathContext;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
-// A UtilityFunction maps a SquareType to a value. All values are initialized to 0
+// A UtilityFunction maps a SquareType to a value. All values are initialized to 0. The
+// values are kept in an array indexed by the ordinal of each SquareType, so the value of a
+// whole board can be found with one Long.bitCount per SquareType (see getValue(long, long))
+//
+// It also maps open win patterns (ones where a player has 1, 2 or 3 pieces and the other
+// player has none) to a value for each number of pieces. The searches keep the counts of
+// open win patterns up to date as they make moves (see QubicSearch), so these values only
+// cost three multiplications per position (see getValue(int[], int[])). Training with
+// Trials has not made these values help searches deeper than one ply yet, so they are only
+// learned (see Qubic.updateUtilityFunction) by a UtilityFunction that uses them (see
+// setUsesLines), and otherwise stay at 0
+//
+// A UtilityFunction can be saved to a binary file and loaded back (see save and load). The
+// file is MAGIC, VERSION, the number of trials the values were learned from, the number of
+// SquareType values followed by the values, and the number of open win pattern values
+// followed by the values (ints and doubles, big-endian). A UtilityFunction that does not use
+// open win patterns saves 0 of them
 
 public class UtilityFunction {
 	
-	private Map<SquareType, Double> _values;
+	private static final SquareType[] SQUARE_TYPES = SquareType.values();
+	private static final long[] MASKS = new long[SQUARE_TYPES.length];
+	static {
+		for (SquareType st : SQUARE_TYPES)
+			MASKS[st.ordinal()] = st.getMask();
+	}
+	
+	// The most pieces an open win pattern can have (with 4 the game is over)
+	public static final int MAX_OPEN_PIECES = 3;
+	
+	public static final int MAGIC = 0x51555446;
+	public static final int VERSION = 1;
+	
+	private double[] _values;
+	private double[] _line_values; // indexed by the number of pieces
+	private boolean _uses_lines = false;
+	private int _trials = 0;
 	
 	public UtilityFunction() {
-		_values = new LinkedHashMap<SquareType, Double>();
-		for (SquareType st : SquareType.values())
-			_values.put(st, 0.0);
+		_values = new double[SQUARE_TYPES.length];
+		_line_values = new double[MAX_OPEN_PIECES + 1];
+	}
+
+	// Creates a UtilityFunction with the same values as the given one
+	public UtilityFunction(UtilityFunction other) {
+		_values = other._values.clone();
+		_line_values = other._line_values.clone();
+		_uses_lines = other._uses_lines;
+		_trials = other._trials;
+	}
+	
+	// Loads the UtilityFunction saved in the given file. Throws an IOException if the file
+	// cannot be read or was not saved by a UtilityFunction of this VERSION
+	public static UtilityFunction load(Path path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (in.readInt() != MAGIC)
+				throw new IOException(path + " is not a saved UtilityFunction");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException(path + " is version " + version + " (expected " + VERSION + ")");
+			UtilityFunction uf = new UtilityFunction();
+			uf._trials = in.readInt();
+			if (in.readInt() != SQUARE_TYPES.length)
+				throw new IOException(path + " has the wrong number of SquareType values");
+			for (int i = 0; i < SQUARE_TYPES.length; i++)
+				uf._values[i] = in.readDouble();
+			int line_values = in.readInt();
+			if (line_values != 0 && line_values != MAX_OPEN_PIECES)
+				throw new IOException(path + " has the wrong number of open win pattern values");
+			uf._uses_lines = line_values != 0;
+			for (int pieces = 1; pieces <= line_values; pieces++)
+				uf._line_values[pieces] = in.readDouble();
+			return uf;
+		}
+	}
+	
+	// Saves the UtilityFunction to the given file (see load). It is written to a temporary
+	// file first and then moved over the old file, so the old file is never left half
+	// written if saving fails
+	public void save(Path path) throws IOException {
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(_trials);
+			out.writeInt(SQUARE_TYPES.length);
+			for (double value : _values)
+				out.writeDouble(value);
+			int line_values = _uses_lines ? MAX_OPEN_PIECES : 0;
+			out.writeInt(line_values);
+			for (int pieces = 1; pieces <= line_values; pieces++)
+				out.writeDouble(_line_values[pieces]);
+		}
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	// Returns the number of trials the values were learned from (see Trials)
+	public int getTrials() {
+		return _trials;
+	}
+	
+	public void setTrials(int trials) {
+		_trials = trials;
 	}
 	
 	public double getValue(SquareType st) {
-		return _values.get(st);
+		return _values[st.ordinal()];
 	}
 	
 	public void setValue(SquareType st, double value) {
-		_values.put(st, value);
+		_values[st.ordinal()] = value;
+	}
+	
+	// Returns the total value of the squares in x minus the total value of the squares in o
+	public double getValue(long x, long o) {
+		return _values[0] * (Long.bitCount(x & MASKS[0]) - Long.bitCount(o & MASKS[0]))
+				+ _values[1] * (Long.bitCount(x & MASKS[1]) - Long.bitCount(o & MASKS[1]))
+				+ _values[2] * (Long.bitCount(x & MASKS[2]) - Long.bitCount(o & MASKS[2]))
+				+ _values[3] * (Long.bitCount(x & MASKS[3]) - Long.bitCount(o & MASKS[3]));
+	}
+	
+	// Returns the value of an open win pattern with the given number of pieces (1 to 3)
+	public double getLineValue(int pieces) {
+		return _line_values[pieces];
+	}
+	
+	public void setLineValue(int pieces, double value) {
+		_line_values[pieces] = value;
+	}
+	
+	// Returns true if the values of open win patterns are learned and saved
+	public boolean usesLines() {
+		return _uses_lines;
+	}
+	
+	// Sets whether the values of open win patterns are learned and saved. Turning them off
+	// sets them to 0
+	public void setUsesLines(boolean uses_lines) {
+		_uses_lines = uses_lines;
+		if (!uses_lines)
+			for (int pieces = 1; pieces <= MAX_OPEN_PIECES; pieces++)
+				_line_values[pieces] = 0;
+	}
+	
+	// IN:	int[]	-> the number of open win patterns X has with each number of pieces
+	//		int[]	-> the number of open win patterns O has with each number of pieces
+	// OUT:	double	-> the total value of X's open win patterns minus the total value of O's
+	public double getValue(int[] x_open, int[] o_open) {
+		return _line_values[1] * (x_open[1] - o_open[1])
+				+ _line_values[2] * (x_open[2] - o_open[2])
+				+ _line_values[3] * (x_open[3] - o_open[3]);
 	}
 	
 	public void print() {
-		for (Entry<SquareType, Double> entry : _values.entrySet())
-			System.out.println(entry.getKey().toString().charAt(0) + entry.getKey().toString().toLowerCase().substring(1) + ": " + new BigDecimal(entry.getValue()).round(new MathContext(3)));
+		for (SquareType st : SQUARE_TYPES)
+			System.out.println(st.toString().charAt(0) + st.toString().toLowerCase().substring(1) + ": " + new BigDecimal(getValue(st)).round(new MathContext(3)));
+		for (int pieces = 1; _uses_lines && pieces <= MAX_OPEN_PIECES; pieces++)
+			System.out.println("Open " + pieces + ": " + new BigDecimal(getLineValue(pieces)).round(new MathContext(3)));
 		System.out.println();
 	}
 }